@@ -0,0 +1,60 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import java.util.Locale;
+
+/**
+ * Controls where the
+ * {@link org.owasp.maven.tools.VelocityWhitespaceFilteringReader} injects the
+ * Velocity comment (##) used to swallow the new line at the end of each line.
+ *
+ * @author Jeremy Long
+ */
+public enum NewlineMarkerMode {
+
+    /**
+     * A comment is appended to every line (the original behavior).
+     */
+    ALWAYS,
+    /**
+     * Targets Velocity 1.7; the trailing new line at the end of the template
+     * is dropped rather than swallowed by a comment.
+     */
+    VELOCITY_1_7,
+    /**
+     * Targets Velocity 2.x with the default <code>lines</code> space
+     * gobbling; in addition to {@link #VELOCITY_1_7}, no comment is added to
+     * lines containing only a single control directive (e.g.
+     * <code>#if(...)</code>, <code>#else</code>, <code>#end</code>, or
+     * <code>#set(...)</code>) as Velocity already gobbles their new line.
+     */
+    VELOCITY_2;
+
+    /**
+     * Parses a mode from its name; the name is case insensitive and may use
+     * dashes, dots, or underscores (e.g. <code>velocity-2</code> or
+     * <code>velocity-1.7</code>).
+     *
+     * @param value the name of the mode
+     * @return the mode
+     * @throws IllegalArgumentException thrown if the name is not a known mode
+     */
+    public static NewlineMarkerMode fromString(String value) {
+        final String name = value.trim().toUpperCase(Locale.ROOT).replace('-', '_').replace('.', '_');
+        return valueOf(name);
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Copies resources that are not filtered without decoding them. The content
+ * is transferred channel to channel so the kernel can copy it in place, and
+ * the write is skipped entirely when the target already has identical
+ * content.
+ *
+ * @author Jeremy Long
+ */
+public class PassthroughCopier {
+
+    /**
+     * The size of the buffers used to compare existing content.
+     */
+    private static final int COMPARE_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Copies <code>from</code> to <code>to</code>. As with
+     * <code>FilteringUtils.copyFile</code>, the copy is skipped when
+     * overwrite is not requested and the target is not older than the
+     * source; in addition, the write is skipped when the target has the same
+     * size and content as the source. An identical target that is older than
+     * the source is given the source's last modified time so that later
+     * builds treat it as up to date without comparing the content again. A
+     * target that is a symbolic link is always replaced by a regular file;
+     * the file it points to is never written.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @param overwrite whether to copy even if the target is up to date
+     * @return <code>true</code> if the target was written; otherwise
+     * <code>false</code>
+     * @throws IOException thrown if the file could not be copied
+     */
+    public boolean copy(File from, File to, boolean overwrite) throws IOException {
+        if (Files.isSymbolicLink(to.toPath())) {
+            //replace the link itself, as Files.copy with NOFOLLOW_LINKS does, rather than writing through it
+            Files.delete(to.toPath());
+            transfer(from, to);
+            copyPermissions(from, to);
+            return true;
+        }
+        boolean written = false;
+        final boolean older = to.lastModified() < from.lastModified();
+        if (overwrite || older) {
+            if (!hasSameContent(from, to)) {
+                transfer(from, to);
+                written = true;
+            } else if (older && !to.setLastModified(from.lastModified())) {
+                throw new IOException("Unable to set the last modified time of " + to);
+            }
+        }
+        copyPermissions(from, to);
+        return written;
+    }
+
+    /**
+     * Transfers the content of <code>from</code> to <code>to</code>.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @throws IOException thrown if the file could not be copied
+     */
+    private void transfer(File from, File to) throws IOException {
+        try (FileChannel in = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(to.toPath(), StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                final long n = in.transferTo(position, size - position, out);
+                if (n <= 0) {
+                    break;
+                }
+                position += n;
+            }
+        }
+    }
+
+    /**
+     * Determines if the target exists with the same size and content as the
+     * source.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @return <code>true</code> if the content is identical; otherwise
+     * <code>false</code>
+     * @throws IOException thrown if the files could not be read
+     */
+    boolean hasSameContent(File from, File to) throws IOException {
+        if (!to.isFile() || to.length() != from.length()) {
+            return false;
+        }
+        try (FileChannel a = FileChannel.open(from.toPath(), StandardOpenOption.READ);
+                FileChannel b = FileChannel.open(to.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer bufferA = ByteBuffer.allocate(COMPARE_BUFFER_SIZE);
+            final ByteBuffer bufferB = ByteBuffer.allocate(COMPARE_BUFFER_SIZE);
+            while (true) {
+                final int n = fill(a, bufferA);
+                if (n != fill(b, bufferB)) {
+                    return false;
+                }
+                if (n == 0) {
+                    return true;
+                }
+                if (!bufferA.equals(bufferB)) {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the buffer from the channel, stopping only when the buffer is
+     * full or the end of the channel is reached. The buffer is flipped ready
+     * for reading.
+     *
+     * @param channel the channel to read
+     * @param buffer the buffer to fill
+     * @return the number of bytes read
+     * @throws IOException thrown if the channel could not be read
+     */
+    private static int fill(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+            //keep reading until the buffer is full
+        }
+        buffer.flip();
+        return buffer.remaining();
+    }
+
+    /**
+     * Copies the file permissions from the source to the target, as is done
+     * by <code>FilteringUtils.copyFile</code>.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @throws IOException thrown if the permissions could not be copied
+     */
+    static void copyPermissions(File from, File to) throws IOException {
+        try {
+            Files.setPosixFilePermissions(to.toPath(), Files.getPosixFilePermissions(from.toPath()));
+        } catch (UnsupportedOperationException ex) {
+            to.setExecutable(from.canExecute());
+            to.setReadable(from.canRead());
+            to.setWritable(from.canWrite());
+        }
+    }
+}
@@ -0,0 +1,574 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.apache.maven.shared.filtering.FilterWrapper;
+
+/**
+ * Copies a file through a chain of filter wrappers using three pipelined
+ * stages so that disk I/O overlaps with filtering: a reader thread reads and
+ * decodes the source file, the calling thread runs the filter chain (e.g. the
+ * {@link org.owasp.maven.tools.VelocityWhitespaceFilteringReader}), and a
+ * writer thread encodes and writes the result. The stages exchange a fixed
+ * number of recycled character buffers through bounded queues, so memory use
+ * is bounded regardless of the size of the file.
+ * <p>
+ * The output is identical to that of the sequential copy performed by
+ * <code>FilteringUtils.copyFile</code>; when the target exists and overwrite
+ * is not requested, only the bytes that differ are rewritten.</p>
+ *
+ * @author Jeremy Long
+ */
+public class PipelinedFilterCopier {
+
+    /**
+     * The default size, in characters, of each pipeline buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * The default number of buffers between each pair of stages.
+     */
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+
+    /**
+     * Marker placed on a queue to signal the end of the stream.
+     */
+    private static final Chunk END = new Chunk(0);
+
+    /**
+     * The size, in characters, of each pipeline buffer.
+     */
+    private final int bufferSize;
+    /**
+     * The number of buffers between each pair of stages.
+     */
+    private final int bufferCount;
+
+    /**
+     * Constructs a new pipelined copier using the default buffer size and
+     * count.
+     */
+    public PipelinedFilterCopier() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+    }
+
+    /**
+     * Constructs a new pipelined copier.
+     *
+     * @param bufferSize the size, in characters, of each pipeline buffer
+     * @param bufferCount the number of buffers between each pair of stages
+     */
+    public PipelinedFilterCopier(int bufferSize, int bufferCount) {
+        if (bufferSize < 1 || bufferCount < 1) {
+            throw new IllegalArgumentException("bufferSize and bufferCount must be positive");
+        }
+        this.bufferSize = bufferSize;
+        this.bufferCount = bufferCount;
+    }
+
+    /**
+     * Copies <code>from</code> to <code>to</code>, passing the content through
+     * the given filter wrappers in order.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @param encoding the encoding of the files; the platform default is used
+     * if <code>null</code> or empty
+     * @param wrappers the filter wrappers to apply, in order
+     * @param overwrite whether to rewrite the target even if it exists
+     * @throws IOException thrown if the file could not be read, filtered, or
+     * written
+     */
+    public void copy(File from, File to, String encoding, List<FilterWrapper> wrappers, boolean overwrite)
+            throws IOException {
+        copy(from, to, encoding == null || encoding.isEmpty()
+                ? Charset.defaultCharset() : Charset.forName(encoding), wrappers, overwrite);
+    }
+
+    /**
+     * Copies <code>from</code> to <code>to</code>, passing the content through
+     * the given filter wrappers in order. A failure of the reader or writer
+     * stage, including an <code>Error</code>, is rethrown on the calling
+     * thread.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @param charset the encoding of the files
+     * @param wrappers the filter wrappers to apply, in order
+     * @param overwrite whether to rewrite the target even if it exists
+     * @throws IOException thrown if the file could not be read, filtered, or
+     * written
+     */
+    void copy(File from, File to, Charset charset, List<FilterWrapper> wrappers, boolean overwrite)
+            throws IOException {
+        final Pipeline pipeline = new Pipeline();
+        final Thread reader = new Thread(() -> pipeline.read(from, charset), "velocity-whitespace-reader");
+        final Thread writer = new Thread(() -> pipeline.write(to, charset, overwrite || !to.exists()),
+                "velocity-whitespace-writer");
+        reader.setDaemon(true);
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+        try {
+            pipeline.filter(wrappers);
+        } finally {
+            pipeline.source.drain();
+            join(reader);
+            join(writer);
+        }
+        pipeline.rethrow(pipeline.readFailure);
+        pipeline.rethrow(pipeline.writeFailure);
+        PassthroughCopier.copyPermissions(from, to);
+    }
+
+    /**
+     * Waits for a pipeline stage to complete.
+     *
+     * @param stage the stage thread
+     * @throws InterruptedIOException thrown if the calling thread is
+     * interrupted
+     */
+    private static void join(Thread stage) throws InterruptedIOException {
+        try {
+            stage.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for " + stage.getName());
+        }
+    }
+
+    /**
+     * A recyclable character buffer passed between the stages.
+     */
+    private static final class Chunk {
+
+        /**
+         * The characters.
+         */
+        private final char[] data;
+        /**
+         * The number of valid characters in the buffer.
+         */
+        private int length;
+
+        /**
+         * Constructs a new chunk.
+         *
+         * @param size the capacity of the chunk
+         */
+        Chunk(int size) {
+            data = new char[size];
+        }
+    }
+
+    /**
+     * The queues and state shared by the stages of a single copy.
+     */
+    private final class Pipeline {
+
+        /**
+         * Empty buffers available to the reader stage.
+         */
+        private final BlockingQueue<Chunk> freeIn = new ArrayBlockingQueue<>(bufferCount);
+        /**
+         * Decoded buffers waiting to be filtered; one extra slot for the end
+         * marker.
+         */
+        private final BlockingQueue<Chunk> filledIn = new ArrayBlockingQueue<>(bufferCount + 1);
+        /**
+         * Empty buffers available to the filter stage.
+         */
+        private final BlockingQueue<Chunk> freeOut = new ArrayBlockingQueue<>(bufferCount);
+        /**
+         * Filtered buffers waiting to be written; one extra slot for the end
+         * marker.
+         */
+        private final BlockingQueue<Chunk> filledOut = new ArrayBlockingQueue<>(bufferCount + 1);
+        /**
+         * The reader over the decoded buffers that feeds the filter chain.
+         */
+        private final ChunkReader source = new ChunkReader(this);
+        /**
+         * Set when the filter stage completes or fails so that the reader
+         * stage stops.
+         */
+        private volatile boolean cancelled;
+        /**
+         * The failure of the reader stage, if any.
+         */
+        private volatile Throwable readFailure;
+        /**
+         * The failure of the writer stage, if any.
+         */
+        private volatile Throwable writeFailure;
+
+        /**
+         * Constructs the pipeline and allocates its buffers.
+         */
+        Pipeline() {
+            for (int i = 0; i < bufferCount; i++) {
+                freeIn.add(new Chunk(bufferSize));
+                freeOut.add(new Chunk(bufferSize));
+            }
+        }
+
+        /**
+         * The reader stage; reads and decodes the source file into buffers.
+         *
+         * @param from the source file
+         * @param charset the encoding of the source file
+         */
+        void read(File from, Charset charset) {
+            try (Reader in = new InputStreamReader(Files.newInputStream(from.toPath()), charset.newDecoder())) {
+                boolean eof = false;
+                while (!eof && !cancelled) {
+                    final Chunk chunk = freeIn.take();
+                    int n = 0;
+                    while (n < chunk.data.length) {
+                        final int count = in.read(chunk.data, n, chunk.data.length - n);
+                        if (count == -1) {
+                            eof = true;
+                            break;
+                        }
+                        n += count;
+                    }
+                    chunk.length = n;
+                    if (n > 0) {
+                        filledIn.put(chunk);
+                    } else {
+                        freeIn.put(chunk);
+                    }
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                readFailure = ex;
+            } catch (Throwable ex) {
+                //record any failure, including an Error, so that the end marker is not taken as end of file
+                readFailure = ex;
+            } finally {
+                filledIn.offer(END);
+            }
+        }
+
+        /**
+         * The filter stage; runs on the calling thread and passes the decoded
+         * buffers through the filter chain.
+         *
+         * @param wrappers the filter wrappers to apply, in order
+         * @throws IOException thrown if filtering fails
+         */
+        void filter(List<FilterWrapper> wrappers) throws IOException {
+            Reader in = source;
+            for (FilterWrapper wrapper : wrappers) {
+                in = wrapper.getReader(in);
+            }
+            try {
+                Chunk chunk = freeOut.take();
+                chunk.length = 0;
+                int n;
+                while (writeFailure == null
+                        && (n = in.read(chunk.data, chunk.length, chunk.data.length - chunk.length)) != -1) {
+                    chunk.length += n;
+                    if (chunk.length == chunk.data.length) {
+                        filledOut.put(chunk);
+                        chunk = freeOut.take();
+                        chunk.length = 0;
+                    }
+                }
+                if (chunk.length > 0) {
+                    filledOut.put(chunk);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while filtering");
+            } finally {
+                cancelled = true;
+                filledOut.offer(END);
+            }
+        }
+
+        /**
+         * The writer stage; encodes and writes the filtered buffers to the
+         * target file.
+         *
+         * @param to the target file
+         * @param charset the encoding of the target file
+         * @param truncate <code>true</code> to replace the target file;
+         * <code>false</code> to only rewrite the bytes that differ
+         */
+        void write(File to, Charset charset, boolean truncate) {
+            Writer out = null;
+            try {
+                final OutputStream stream = truncate
+                        ? Files.newOutputStream(to.toPath()) : new CompareOutputStream(to);
+                out = new OutputStreamWriter(stream, charset.newEncoder());
+            } catch (Throwable ex) {
+                writeFailure = ex;
+            }
+            try {
+                Chunk chunk;
+                while ((chunk = filledOut.take()) != END) {
+                    if (writeFailure == null) {
+                        try {
+                            out.write(chunk.data, 0, chunk.length);
+                        } catch (Throwable ex) {
+                            //keep recycling the buffers so that the filter stage cannot block
+                            writeFailure = ex;
+                        }
+                    }
+                    freeOut.put(chunk);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                writeFailure = ex;
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (Throwable ex) {
+                    if (writeFailure == null) {
+                        writeFailure = ex;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Rethrows the failure of a stage; unchecked exceptions and errors are
+         * rethrown as is.
+         *
+         * @param failure the failure of the stage; may be <code>null</code>
+         * @throws IOException the failure
+         */
+        void rethrow(Throwable failure) throws IOException {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure instanceof InterruptedException) {
+                throw new InterruptedIOException(failure.getMessage());
+            } else if (failure != null) {
+                throw new IOException(failure);
+            }
+        }
+    }
+
+    /**
+     * A reader over the decoded buffers produced by the reader stage.
+     */
+    private static final class ChunkReader extends Reader {
+
+        /**
+         * The pipeline the buffers are taken from.
+         */
+        private final Pipeline pipeline;
+        /**
+         * The buffer currently being read.
+         */
+        private Chunk current;
+        /**
+         * The position within the current buffer.
+         */
+        private int position;
+        /**
+         * Whether the end marker has been taken from the queue.
+         */
+        private boolean eof;
+
+        /**
+         * Constructs a new chunk reader.
+         *
+         * @param pipeline the pipeline the buffers are taken from
+         */
+        ChunkReader(Pipeline pipeline) {
+            this.pipeline = pipeline;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int read(char[] cbuf, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (current == null || position == current.length) {
+                if (!next()) {
+                    return -1;
+                }
+            }
+            final int n = Math.min(length, current.length - position);
+            System.arraycopy(current.data, position, cbuf, offset, n);
+            position += n;
+            return n;
+        }
+
+        /**
+         * Recycles the current buffer and takes the next one from the reader
+         * stage.
+         *
+         * @return <code>true</code> if a buffer is available; otherwise
+         * <code>false</code> at the end of the stream
+         * @throws IOException thrown if the reader stage failed
+         */
+        private boolean next() throws IOException {
+            if (current != null) {
+                pipeline.freeIn.offer(current);
+                current = null;
+            }
+            if (eof) {
+                return false;
+            }
+            final Chunk chunk;
+            try {
+                chunk = pipeline.filledIn.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading");
+            }
+            if (chunk == END) {
+                eof = true;
+                pipeline.rethrow(pipeline.readFailure);
+                return false;
+            }
+            current = chunk;
+            position = 0;
+            return true;
+        }
+
+        /**
+         * Consumes and recycles any remaining buffers so that the reader stage
+         * can complete.
+         */
+        void drain() {
+            if (current != null) {
+                pipeline.freeIn.offer(current);
+                current = null;
+            }
+            while (!eof) {
+                final Chunk chunk;
+                try {
+                    chunk = pipeline.filledIn.take();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (chunk == END) {
+                    eof = true;
+                } else {
+                    pipeline.freeIn.offer(chunk);
+                }
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() {
+            //the pipeline owns the underlying file
+        }
+    }
+
+    /**
+     * An output stream over an existing file that only rewrites the bytes
+     * that differ from the existing content and truncates any excess content
+     * on close.
+     */
+    private static final class CompareOutputStream extends OutputStream {
+
+        /**
+         * The target file.
+         */
+        private final RandomAccessFile file;
+        /**
+         * Scratch buffer for the existing content.
+         */
+        private byte[] existing = new byte[8192];
+
+        /**
+         * Opens the target file for comparison.
+         *
+         * @param to the target file
+         * @throws IOException thrown if the file cannot be opened
+         */
+        CompareOutputStream(File to) throws IOException {
+            file = new RandomAccessFile(to, "rw");
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (existing.length < len) {
+                existing = new byte[len];
+            }
+            final long position = file.getFilePointer();
+            int read = 0;
+            while (read < len) {
+                final int n = file.read(existing, read, len - read);
+                if (n == -1) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != len || !Arrays.equals(b, off, off + len, existing, 0, len)) {
+                file.seek(position);
+                file.write(b, off, len);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                if (file.length() > file.getFilePointer()) {
+                    file.setLength(file.getFilePointer());
+                }
+            } finally {
+                file.close();
+            }
+        }
+    }
+}
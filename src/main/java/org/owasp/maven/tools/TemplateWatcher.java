@@ -0,0 +1,477 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.maven.shared.filtering.FilterWrapper;
+import org.apache.maven.shared.filtering.MavenFilteringException;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+/**
+ * Watches a resource directory and re-filters Velocity Templates into an
+ * output directory (e.g. <code>target/classes</code>) as they are edited,
+ * avoiding a Maven build for each change during local development. Templates
+ * are selected and filtered by the
+ * {@link org.owasp.maven.tools.VelocityWhitespaceFilter} using the same
+ * extension rules, and the process stays running so the filter remains
+ * compiled by the JIT between edits. Change events are debounced so that a
+ * burst of events from a single save results in one filter pass.
+ * <p>
+ * Maven property interpolation is not applied; only the whitespace filter
+ * runs. Existing output is therefore only replaced for templates that are
+ * edited or out of date at startup, or for every template if change events
+ * are lost.</p>
+ * <p>
+ * Usage: <code>java -cp ... org.owasp.maven.tools.TemplateWatcher
+ * &lt;sourceDirectory&gt; &lt;outputDirectory&gt; [encoding]</code></p>
+ *
+ * @author Jeremy Long
+ */
+public class TemplateWatcher implements Closeable {
+
+    /**
+     * The default time, in milliseconds, to wait for further change events
+     * before filtering.
+     */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 50;
+
+    /**
+     * The filter used to select and copy the templates.
+     */
+    private final VelocityWhitespaceFilter filter;
+    /**
+     * The directory containing the templates.
+     */
+    private final Path sourceDirectory;
+    /**
+     * The directory the filtered templates are written to.
+     */
+    private final Path outputDirectory;
+    /**
+     * The encoding of the templates.
+     */
+    private final String encoding;
+    /**
+     * The time, in milliseconds, to wait for further change events before
+     * filtering.
+     */
+    private final long debounceMillis;
+    /**
+     * Where progress and latency are reported.
+     */
+    private final PrintStream out;
+    /**
+     * The watch service.
+     */
+    private final WatchService watchService;
+    /**
+     * The watched directories keyed by their watch key.
+     */
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    /**
+     * Constructs a new template watcher and registers the source directory
+     * and its sub-directories.
+     *
+     * @param filter the filter used to select and copy the templates
+     * @param sourceDirectory the directory containing the templates
+     * @param outputDirectory the directory the filtered templates are
+     * written to
+     * @param encoding the encoding of the templates; the platform default is
+     * used if <code>null</code>
+     * @param debounceMillis the time, in milliseconds, to wait for further
+     * change events before filtering
+     * @param out where progress and latency are reported
+     * @throws IOException thrown if the directories cannot be watched
+     */
+    public TemplateWatcher(VelocityWhitespaceFilter filter, File sourceDirectory, File outputDirectory,
+            String encoding, long debounceMillis, PrintStream out) throws IOException {
+        this.filter = filter;
+        this.sourceDirectory = sourceDirectory.toPath().toAbsolutePath().normalize();
+        this.outputDirectory = outputDirectory.toPath().toAbsolutePath().normalize();
+        this.encoding = encoding;
+        this.debounceMillis = debounceMillis;
+        this.out = out;
+        this.watchService = this.sourceDirectory.getFileSystem().newWatchService();
+        register(this.sourceDirectory);
+    }
+
+    /**
+     * Watches the source directory until interrupted.
+     *
+     * @param args the source directory, the output directory, and optionally
+     * the encoding
+     * @throws IOException thrown if the directories cannot be watched
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TemplateWatcher <sourceDirectory> <outputDirectory> [encoding]");
+            System.exit(2);
+        }
+        final VelocityWhitespaceFilter filter = new VelocityWhitespaceFilter(newStandaloneBuildContext());
+        final TemplateWatcher watcher = new TemplateWatcher(filter, new File(args[0]), new File(args[1]),
+                args.length > 2 ? args[2] : null, DEFAULT_DEBOUNCE_MILLIS, System.out);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                watcher.close();
+            } catch (IOException ex) {
+                System.err.println(ex.getMessage());
+            }
+        }));
+        final long start = System.nanoTime();
+        final int count = watcher.warmUp();
+        System.out.printf(Locale.ROOT, "Warmed up and filtered %d out of date templates in %.1f ms; watching %s%n",
+                count, millis(System.nanoTime() - start), args[0]);
+        try {
+            watcher.run();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Warms up the filter before the first edit by running every template in
+     * the source directory through the whitespace filter and discarding the
+     * result. Only templates whose output is missing or older than the
+     * template are written; other output, which may have been interpolated by
+     * Maven, is left untouched.
+     *
+     * @return the number of out of date templates filtered
+     * @throws IOException thrown if the source directory cannot be read
+     */
+    public int warmUp() throws IOException {
+        int count = 0;
+        for (Path template : templates()) {
+            final Path target = outputDirectory.resolve(sourceDirectory.relativize(template));
+            if (Files.isRegularFile(target)
+                    && Files.getLastModifiedTime(target).compareTo(Files.getLastModifiedTime(template)) >= 0) {
+                discard(template);
+            } else if (filterTemplate(template) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Filters every template in the source directory into the output
+     * directory, replacing any existing output. Used when change events have
+     * been lost.
+     *
+     * @return the number of templates filtered
+     * @throws IOException thrown if the source directory cannot be read
+     */
+    public int synchronize() throws IOException {
+        int count = 0;
+        for (Path template : templates()) {
+            if (filterTemplate(template) >= 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Lists the templates in the source directory.
+     *
+     * @return the templates
+     * @throws IOException thrown if the source directory cannot be read
+     */
+    private List<Path> templates() throws IOException {
+        try (Stream<Path> files = Files.walk(sourceDirectory)) {
+            return files.filter(Files::isRegularFile)
+                    .filter(p -> filter.shouldFilter(p.toFile()))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Processes change events until the watcher is closed.
+     *
+     * @throws InterruptedException thrown if the thread is interrupted
+     */
+    public void run() throws InterruptedException {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                final Map<Path, Long> changed = new LinkedHashMap<>();
+                boolean resync = collect(key, changed);
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    resync |= collect(key, changed);
+                }
+                if (resync) {
+                    out.println("Change events were lost; re-filtering all templates");
+                    try {
+                        synchronize();
+                    } catch (IOException ex) {
+                        out.println("Unable to re-filter templates: " + ex.getMessage());
+                    }
+                }
+                for (Map.Entry<Path, Long> entry : changed.entrySet()) {
+                    //after a resync only deletions remain to be applied
+                    if (!resync || !Files.exists(entry.getKey())) {
+                        process(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        } catch (ClosedWatchServiceException ex) {
+            //the watcher was closed
+        }
+    }
+
+    /**
+     * Stops watching the source directory.
+     *
+     * @throws IOException thrown if the watch service cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Registers the directory and its sub-directories with the watch service.
+     *
+     * @param directory the directory to register
+     * @return the regular files found in the directory and its
+     * sub-directories
+     * @throws IOException thrown if the directory cannot be registered
+     */
+    private List<Path> register(Path directory) throws IOException {
+        final List<Path> files = new ArrayList<>();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                final WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                files.add(file);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Collects the changed paths from a watch key, registering any new
+     * directories.
+     *
+     * @param key the watch key
+     * @param changed the changed paths and the time (System.nanoTime) the
+     * change was first seen
+     * @return <code>true</code> if events were lost and all templates must
+     * be re-filtered; otherwise <code>false</code>
+     */
+    private boolean collect(WatchKey key, Map<Path, Long> changed) {
+        final long now = System.nanoTime();
+        final Path directory = directories.get(key);
+        boolean resync = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (directory == null || event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                resync = true;
+                continue;
+            }
+            final Path path = directory.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                try {
+                    for (Path file : register(path)) {
+                        changed.putIfAbsent(file, now);
+                    }
+                } catch (IOException ex) {
+                    out.println("Unable to watch " + path + ": " + ex.getMessage());
+                }
+            } else {
+                changed.putIfAbsent(path, now);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+        return resync;
+    }
+
+    /**
+     * Re-filters, or removes, the output for a changed path and reports the
+     * latency.
+     *
+     * @param path the changed path
+     * @param seen the time (System.nanoTime) the change was first seen
+     */
+    private void process(Path path, long seen) {
+        final Path relative = sourceDirectory.relativize(path);
+        final Path target = outputDirectory.resolve(relative);
+        if (!Files.exists(path) && Files.isDirectory(target)) {
+            removeTemplates(relative, target);
+            return;
+        }
+        if (!filter.shouldFilter(path.toFile())) {
+            return;
+        }
+        if (Files.isRegularFile(path)) {
+            final long elapsed = filterTemplate(path);
+            if (elapsed >= 0) {
+                out.printf(Locale.ROOT, "Filtered %s in %.1f ms (%.1f ms after the change)%n",
+                        relative, millis(elapsed), millis(System.nanoTime() - seen));
+            }
+        } else if (!Files.exists(path)) {
+            try {
+                if (Files.deleteIfExists(target)) {
+                    out.println("Removed " + relative);
+                }
+            } catch (IOException ex) {
+                out.println("Unable to remove " + relative + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Removes the filtered templates from the output directory of a deleted
+     * source directory. Other files in the output directory (e.g. compiled
+     * classes or resources copied by Maven) are left in place, and only the
+     * directories emptied by the removal are deleted.
+     *
+     * @param relative the deleted directory relative to the source directory
+     * @param target the matching output directory
+     */
+    private void removeTemplates(Path relative, Path target) {
+        try {
+            Files.walkFileTree(target, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (filter.shouldFilter(file.toFile())) {
+                        Files.delete(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                    if (exc != null) {
+                        throw exc;
+                    }
+                    try (Stream<Path> entries = Files.list(dir)) {
+                        if (!entries.findAny().isPresent()) {
+                            Files.delete(dir);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+            out.println("Removed " + relative);
+        } catch (IOException ex) {
+            out.println("Unable to remove " + relative + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Runs a single template through the whitespace filter and discards the
+     * result.
+     *
+     * @param template the template
+     */
+    private void discard(Path template) {
+        final Charset charset = encoding == null || encoding.isEmpty()
+                ? Charset.defaultCharset() : Charset.forName(encoding);
+        try (Reader in = new VelocityWhitespaceFilteringReader(
+                Files.newBufferedReader(template, charset), filter.getMarkerMode())) {
+            final char[] buffer = new char[8192];
+            while (in.read(buffer) != -1) {
+                //discard the filtered content
+            }
+        } catch (IOException ex) {
+            out.println("Unable to read " + sourceDirectory.relativize(template) + ": " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Filters a single template into the output directory.
+     *
+     * @param template the template
+     * @return the time taken in nanoseconds, or -1 if the template could not
+     * be filtered
+     */
+    private long filterTemplate(Path template) {
+        final Path relative = sourceDirectory.relativize(template);
+        final Path target = outputDirectory.resolve(relative);
+        final long start = System.nanoTime();
+        try {
+            Files.createDirectories(target.getParent());
+            filter.copyFile(template.toFile(), target.toFile(), true,
+                    Collections.<FilterWrapper>emptyList(), encoding, true);
+        } catch (IOException | MavenFilteringException ex) {
+            out.println("Unable to filter " + relative + ": " + ex.getMessage());
+            return -1;
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Creates a build context for use outside of Maven; the plexus
+     * <code>DefaultBuildContext</code> cannot be used as it requires the
+     * plexus container on the class path. The filter only notifies the
+     * context of the files written, so every method is a no-op that returns
+     * <code>false</code> or <code>null</code>.
+     *
+     * @return the build context
+     */
+    private static BuildContext newStandaloneBuildContext() {
+        return (BuildContext) Proxy.newProxyInstance(BuildContext.class.getClassLoader(),
+                new Class<?>[]{BuildContext.class},
+                (proxy, method, args) -> method.getReturnType() == boolean.class ? Boolean.FALSE : null);
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds.
+     *
+     * @param nanos the nanoseconds
+     * @return the milliseconds
+     */
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -16,6 +16,8 @@
 package org.owasp.maven.tools;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -40,10 +42,45 @@ import javax.inject.Inject;
 @Component(role = MavenFileFilter.class, hint = "default")
 public class VelocityWhitespaceFilter extends DefaultMavenFileFilter {
 
+    /**
+     * The system property holding the file size, in bytes, at or above which
+     * Velocity Templates are copied using the
+     * {@link org.owasp.maven.tools.PipelinedFilterCopier}. Pipelining is
+     * disabled when the property is not set or is negative.
+     */
+    public static final String PIPELINE_THRESHOLD_PROPERTY = "velocity.whitespace.pipelineThreshold";
+    /**
+     * The system property holding the
+     * {@link org.owasp.maven.tools.NewlineMarkerMode} (e.g.
+     * <code>velocity-2</code>); defaults to <code>always</code>.
+     */
+    public static final String MARKER_MODE_PROPERTY = "velocity.whitespace.markerMode";
+
     /**
      * The extensions that are supported.
      */
     private final List<String> extensions = Arrays.asList("vm", "vtl", "vsl");
+    /**
+     * The build context.
+     */
+    private final BuildContext buildContext;
+    /**
+     * The copier used for templates at or above the pipeline threshold.
+     */
+    private final PipelinedFilterCopier pipelinedCopier = new PipelinedFilterCopier();
+    /**
+     * The copier used for resources that are not filtered.
+     */
+    private final PassthroughCopier passthroughCopier = new PassthroughCopier();
+    /**
+     * The file size, in bytes, at or above which templates are copied using
+     * the pipelined copier; negative to disable pipelining.
+     */
+    private long pipelineThreshold = Long.getLong(PIPELINE_THRESHOLD_PROPERTY, -1L);
+    /**
+     * Controls where the Velocity comments are injected.
+     */
+    private NewlineMarkerMode markerMode = markerModeProperty();
 
     /**
      * Constructs a VelocityWhitespaceFilter.
@@ -53,6 +90,68 @@ public class VelocityWhitespaceFilter extends DefaultMavenFileFilter {
     @Inject
     public VelocityWhitespaceFilter(final BuildContext buildContext) {
         super(buildContext);
+        this.buildContext = buildContext;
+    }
+
+    /**
+     * Reads the marker mode from the
+     * {@link #MARKER_MODE_PROPERTY velocity.whitespace.markerMode} system
+     * property.
+     *
+     * @return the marker mode; {@link NewlineMarkerMode#ALWAYS} if the
+     * property is not set
+     * @throws IllegalArgumentException thrown if the property is not a known
+     * marker mode
+     */
+    private static NewlineMarkerMode markerModeProperty() {
+        final String value = System.getProperty(MARKER_MODE_PROPERTY, NewlineMarkerMode.ALWAYS.name());
+        try {
+            return NewlineMarkerMode.fromString(value);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException("Invalid value '" + value + "' for " + MARKER_MODE_PROPERTY
+                    + "; expected one of always, velocity-1.7, or velocity-2", ex);
+        }
+    }
+
+    /**
+     * Sets the file size, in bytes, at or above which templates are copied
+     * using the {@link org.owasp.maven.tools.PipelinedFilterCopier}.
+     *
+     * @param pipelineThreshold the threshold in bytes; negative to disable
+     * pipelining
+     */
+    public void setPipelineThreshold(long pipelineThreshold) {
+        this.pipelineThreshold = pipelineThreshold;
+    }
+
+    /**
+     * Returns where the Velocity comments are injected.
+     *
+     * @return the marker mode
+     */
+    public NewlineMarkerMode getMarkerMode() {
+        return markerMode;
+    }
+
+    /**
+     * Sets where the Velocity comments are injected.
+     *
+     * @param markerMode the marker mode
+     */
+    public void setMarkerMode(NewlineMarkerMode markerMode) {
+        this.markerMode = markerMode;
+    }
+
+    /**
+     * Whether or not the given file should be copied using the pipelined
+     * copier.
+     *
+     * @param from the file to test
+     * @return true if the file is at or above the pipeline threshold,
+     * otherwise false
+     */
+    protected boolean shouldPipeline(File from) {
+        return pipelineThreshold >= 0 && from.length() >= pipelineThreshold;
     }
 
     /**
@@ -72,7 +171,9 @@ public class VelocityWhitespaceFilter extends DefaultMavenFileFilter {
     /**
      * {@inheritDoc} Copies the given file using the
      * {@link org.owasp.maven.tools.VelocityWhitespaceFilteringReader} so that
-     * the Velocity Template copied will output less whitespace.
+     * the Velocity Template copied will output less whitespace. Resources
+     * that are not filtered are copied using the
+     * {@link org.owasp.maven.tools.PassthroughCopier}.
      */
     @Override
     public void copyFile(File from, File to, boolean filtering, List<FilterWrapper> filterWrappers,
@@ -80,8 +181,78 @@ public class VelocityWhitespaceFilter extends DefaultMavenFileFilter {
         List<FilterWrapper> wrappers = filterWrappers;
         if (filtering && shouldFilter(from)) {
             wrappers = new ArrayList<>(filterWrappers);
-            wrappers.add(new VelocityWhitespaceFilterWrapper());
+            wrappers.add(new VelocityWhitespaceFilterWrapper(markerMode));
+            if (shouldPipeline(from)) {
+                copyPipelined(from, to, wrappers, encoding, overwrite);
+                return;
+            }
+        } else if (isPassthrough(from, filtering, filterWrappers)) {
+            copyPassthrough(from, to, overwrite);
+            return;
         }
         super.copyFile(from, to, filtering, wrappers, encoding, overwrite);
     }
+
+    /**
+     * Whether or not the given file can be copied byte for byte; that is, no
+     * filter wrappers apply to it. Symbolic links are left to the default
+     * copy, which copies the link itself.
+     *
+     * @param from the file to test
+     * @param filtering whether filtering is enabled
+     * @param filterWrappers the filter wrappers
+     * @return true if the file is copied without filtering, otherwise false
+     */
+    protected boolean isPassthrough(File from, boolean filtering, List<FilterWrapper> filterWrappers) {
+        return (!filtering || filterWrappers == null || filterWrappers.isEmpty())
+                && !Files.isSymbolicLink(from.toPath());
+    }
+
+    /**
+     * Copies the given file using the
+     * {@link org.owasp.maven.tools.PassthroughCopier}.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @param overwrite whether to copy even if the target is up to date
+     * @throws MavenFilteringException thrown if the copy fails
+     */
+    private void copyPassthrough(File from, File to, boolean overwrite) throws MavenFilteringException {
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("copy " + from.getPath() + " to " + to.getPath());
+        }
+        try {
+            if (passthroughCopier.copy(from, to, overwrite)) {
+                buildContext.refresh(to);
+            }
+        } catch (IOException e) {
+            throw new MavenFilteringException("copying " + from.getPath() + " to " + to.getPath()
+                    + " failed with " + e.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Copies the given file using the
+     * {@link org.owasp.maven.tools.PipelinedFilterCopier}.
+     *
+     * @param from the source file
+     * @param to the target file
+     * @param wrappers the filter wrappers to apply, in order
+     * @param encoding the encoding of the files
+     * @param overwrite whether to rewrite the target even if it exists
+     * @throws MavenFilteringException thrown if the copy fails
+     */
+    private void copyPipelined(File from, File to, List<FilterWrapper> wrappers, String encoding,
+            boolean overwrite) throws MavenFilteringException {
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("filtering " + from.getPath() + " to " + to.getPath() + " (pipelined)");
+        }
+        try {
+            pipelinedCopier.copy(from, to, encoding, wrappers, overwrite);
+            buildContext.refresh(to);
+        } catch (IOException e) {
+            throw new MavenFilteringException("filtering " + from.getPath() + " to " + to.getPath()
+                    + " failed with " + e.getClass().getSimpleName(), e);
+        }
+    }
 }
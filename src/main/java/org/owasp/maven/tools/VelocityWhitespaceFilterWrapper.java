@@ -27,11 +27,33 @@ import org.apache.maven.shared.filtering.FilterWrapper;
  */
 public class VelocityWhitespaceFilterWrapper extends FilterWrapper {
 
+    /**
+     * Controls where the Velocity comments are injected.
+     */
+    private final NewlineMarkerMode mode;
+
+    /**
+     * Constructs a new filter wrapper that appends a Velocity comment to every
+     * line.
+     */
+    public VelocityWhitespaceFilterWrapper() {
+        this(NewlineMarkerMode.ALWAYS);
+    }
+
+    /**
+     * Constructs a new filter wrapper.
+     *
+     * @param mode controls where the Velocity comments are injected
+     */
+    public VelocityWhitespaceFilterWrapper(NewlineMarkerMode mode) {
+        this.mode = mode;
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public Reader getReader(Reader reader) {
-        return new VelocityWhitespaceFilteringReader(reader);
+        return new VelocityWhitespaceFilteringReader(reader, mode);
     }
 }
@@ -21,26 +21,74 @@ import java.io.Reader;
 
 /**
  * Reads a Velocity Template and filters leading whitespace and injects Velocity
- * comments (##) to the end of each line.
+ * comments (##) to the end of each line. Where the comments are injected is
+ * controlled by the {@link org.owasp.maven.tools.NewlineMarkerMode}. The
+ * underlying reader is read in blocks into an internal buffer and the filter
+ * runs over that buffer, rather than calling <code>read()</code> on the
+ * underlying reader for each character.
  *
  * @author Jeremy Long
  */
 public class VelocityWhitespaceFilteringReader extends FilterReader {
 
+    /**
+     * The default number of characters read at a time from the underlying
+     * reader.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 512;
+
     /**
      * A cache of the previous three characters read.
      */
     private final ReaderCache cache = new ReaderCache();
+
+    /**
+     * Characters read from the underlying reader that have not yet been
+     * filtered.
+     */
+    private final char[] buffer;
+    /**
+     * The position of the next character to filter within the buffer.
+     */
+    private int position;
+    /**
+     * The number of valid characters within the buffer.
+     */
+    private int limit;
     
     /**
-     * Primitive buffer for pending characters (max 3 chars).
+     * Primitive buffer for pending characters (max 4 chars).
      * Avoids boxing/unboxing overhead of Deque&lt;Character&gt;.
      */
     private char p0;
     private char p1;
     private char p2;
+    private char p3;
     private int pCount;
 
+    /**
+     * Controls where the Velocity comments are injected.
+     */
+    private final NewlineMarkerMode mode;
+    /**
+     * Tracks whether the current line contains only a single directive; only
+     * used for {@link NewlineMarkerMode#VELOCITY_2}.
+     */
+    private final DirectiveLine directiveLine;
+    /**
+     * The new line character whose output is deferred until it is known
+     * whether more content follows; -1 if there is none.
+     */
+    private int deferredNewLine = -1;
+    /**
+     * Whether the deferred new line needs a Velocity comment.
+     */
+    private boolean deferredMarker;
+    /**
+     * Whether the deferred Velocity comment needs a leading space.
+     */
+    private boolean deferredSpace;
+
     /**
      * Tracks if a velocity comment is being read. Note, these are not filtered.
      */
@@ -66,7 +114,67 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
      * @param reader the underlying reader
      */
     public VelocityWhitespaceFilteringReader(Reader reader) {
+        this(reader, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new Velocity whitespace filtering reader.
+     *
+     * @param reader the underlying reader
+     * @param bufferSize the number of characters read at a time from the
+     * underlying reader; a size of one reads the underlying reader a
+     * character at a time
+     */
+    public VelocityWhitespaceFilteringReader(Reader reader, int bufferSize) {
+        this(reader, bufferSize, NewlineMarkerMode.ALWAYS);
+    }
+
+    /**
+     * Creates a new Velocity whitespace filtering reader.
+     *
+     * @param reader the underlying reader
+     * @param mode controls where the Velocity comments are injected
+     */
+    public VelocityWhitespaceFilteringReader(Reader reader, NewlineMarkerMode mode) {
+        this(reader, DEFAULT_BUFFER_SIZE, mode);
+    }
+
+    /**
+     * Creates a new Velocity whitespace filtering reader.
+     *
+     * @param reader the underlying reader
+     * @param bufferSize the number of characters read at a time from the
+     * underlying reader; a size of one reads the underlying reader a
+     * character at a time
+     * @param mode controls where the Velocity comments are injected
+     */
+    public VelocityWhitespaceFilteringReader(Reader reader, int bufferSize, NewlineMarkerMode mode) {
         super(reader);
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize must be positive");
+        }
+        buffer = new char[bufferSize];
+        this.mode = mode;
+        directiveLine = mode == NewlineMarkerMode.VELOCITY_2 ? new DirectiveLine() : null;
+    }
+
+    /**
+     * Reads the next unfiltered character, refilling the buffer from the
+     * underlying reader when it is exhausted.
+     *
+     * @return the next character or -1 at the end of the stream
+     * @throws IOException thrown if the underlying reader fails
+     */
+    private int next() throws IOException {
+        if (position == limit) {
+            final int n = in.read(buffer, 0, buffer.length);
+            if (n <= 0) {
+                return -1;
+            }
+            position = 0;
+            limit = n;
+        }
+        return buffer[position++];
     }
 
     /**
@@ -94,6 +202,9 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
             case 2:
                 p2 = ch;
                 break;
+            case 3:
+                p3 = ch;
+                break;
             default:
                 throw new IllegalStateException("Pending buffer overflow");
         }
@@ -111,6 +222,9 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
             p0 = p1;
             if (pCount > 2) {
                 p1 = p2;
+                if (pCount > 3) {
+                    p2 = p3;
+                }
             }
         }
         pCount--;
@@ -125,9 +239,20 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
         if (hasPending()) {
             return dequeue();
         }
-        int c = super.read();
+        return filter();
+    }
+
+    /**
+     * Reads and filters the next character; any additional characters
+     * injected by the filter are placed in the pending buffer.
+     *
+     * @return the next character or -1 at the end of the stream
+     * @throws IOException thrown if the underlying reader fails
+     */
+    private int filter() throws IOException {
+        int c = next();
         if (c == -1) {
-            return -1;
+            return endOfStream();
         }
         cache.push(c);
 
@@ -143,15 +268,21 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
             return c;
         } else if (cache.checkSequence('#', '[', '[')) {
             inUninterpretted = true;
+            if (directiveLine != null) {
+                directiveLine.reject();
+            }
         } else if (cache.checkSequence('#', '*')) {
             inComment = true;
+            if (directiveLine != null) {
+                directiveLine.reject();
+            }
         }
         if (!inComment && !inUninterpretted) {
             if (isNewLine) {
                 while (c == '\t' || c == ' ' || c == '\n' || c == '\r') {
-                    c = super.read();
+                    c = next();
                     if (c == -1) {
-                        return -1;
+                        return endOfStream();
                     }
                     cache.push(c);
                 }
@@ -164,6 +295,14 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
                         needsTrailingSpace = false;
                     }
                 }
+                if (mode != NewlineMarkerMode.ALWAYS) {
+                    deferredNewLine = c;
+                    deferredMarker = directiveLine == null || !directiveLine.endLine();
+                    deferredSpace = needsTrailingSpace && deferredMarker;
+                    needsTrailingSpace = false;
+                    //the new line is output, or dropped, once the next line is read
+                    return filter();
+                }
                 final char retVal;
                 if (needsTrailingSpace) {
                     enqueue('#');
@@ -181,10 +320,61 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
             } else if (needsTrailingSpace && checkIfNeedsTrailingSpace(c)) {
                 needsTrailingSpace = false;
             }
+            if (directiveLine != null) {
+                directiveLine.push(c);
+            }
+            if (deferredNewLine != -1) {
+                return flushNewLine(c);
+            }
         }
         return c;
     }
 
+    /**
+     * Outputs the deferred new line, and its Velocity comment if needed,
+     * followed by the first character of the next line.
+     *
+     * @param c the first character of the next line
+     * @return the first character to output; the remaining characters are
+     * placed in the pending buffer
+     */
+    private int flushNewLine(int c) {
+        final char eol = (char) deferredNewLine;
+        deferredNewLine = -1;
+        final int retVal;
+        if (!deferredMarker) {
+            retVal = eol;
+        } else if (deferredSpace) {
+            enqueue('#');
+            enqueue('#');
+            enqueue(eol);
+            retVal = ' ';
+        } else {
+            enqueue('#');
+            enqueue(eol);
+            retVal = '#';
+        }
+        enqueue((char) c);
+        return retVal;
+    }
+
+    /**
+     * Handles the end of the stream. A deferred new line at the end of the
+     * template is dropped as it would only have been swallowed by a Velocity
+     * comment; the space that terminates a trailing reference is kept.
+     *
+     * @return a trailing space if one is needed; otherwise -1
+     */
+    private int endOfStream() {
+        if (deferredNewLine != -1) {
+            deferredNewLine = -1;
+            if (deferredSpace) {
+                return ' ';
+            }
+        }
+        return -1;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -200,7 +390,7 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
         }
         
         while (n < length) {
-            int ch = read();
+            int ch = filter();
             if (ch == -1) {
                 break;
             }
@@ -214,6 +404,56 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
         return n == 0 ? -1 : n;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        if (n < 0) {
+            throw new IllegalArgumentException("skip value is negative");
+        }
+        long skipped = 0;
+        while (skipped < n && read() != -1) {
+            skipped++;
+        }
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean ready() throws IOException {
+        return hasPending() || position < limit || in.ready();
+    }
+
+    /**
+     * Mark is not supported as characters are buffered from the underlying
+     * reader.
+     *
+     * @return <code>false</code>
+     */
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
     /**
      * Determines if the current velocity expression requires a trailing space
      * before a single line comment is added (##).
@@ -228,6 +468,235 @@ public class VelocityWhitespaceFilteringReader extends FilterReader {
                 || c == '(' || c == ')' || c == '[' || c == ']');
     }
 
+    /**
+     * Tracks whether a line contains only a single Velocity control directive,
+     * in which case Velocity 2.x <code>lines</code> space gobbling already
+     * swallows the new line. The characters of the line are pushed after
+     * leading whitespace has been removed. Lines with trailing whitespace are
+     * not matched as the whitespace would be output before a comment but
+     * gobbled without one.
+     */
+    private static class DirectiveLine {
+
+        /**
+         * At the start of a line.
+         */
+        private static final int START = 0;
+        /**
+         * A '#' has been read.
+         */
+        private static final int HASH = 1;
+        /**
+         * The directive name is being read.
+         */
+        private static final int NAME = 2;
+        /**
+         * The directive name has been read.
+         */
+        private static final int AFTER_NAME = 3;
+        /**
+         * The directive arguments are being read.
+         */
+        private static final int ARGS = 4;
+        /**
+         * The directive is complete; nothing may follow.
+         */
+        private static final int DONE = 5;
+        /**
+         * The line is not a single directive.
+         */
+        private static final int OTHER = 6;
+
+        /**
+         * The directive does not take arguments (e.g. #end).
+         */
+        private static final int NO_ARGS = 0;
+        /**
+         * The directive may take arguments (e.g. #break).
+         */
+        private static final int OPTIONAL_ARGS = 1;
+        /**
+         * The directive requires arguments (e.g. #if).
+         */
+        private static final int REQUIRED_ARGS = 2;
+
+        /**
+         * The current state.
+         */
+        private int state = START;
+        /**
+         * The directive name read so far.
+         */
+        private final char[] name = new char[7];
+        /**
+         * The length of the directive name.
+         */
+        private int nameLength;
+        /**
+         * Whether the directive uses the braced form (e.g. #{end}).
+         */
+        private boolean braced;
+        /**
+         * Whether the directive takes arguments; one of NO_ARGS,
+         * OPTIONAL_ARGS, or REQUIRED_ARGS.
+         */
+        private int arguments;
+        /**
+         * The parenthesis depth within the arguments.
+         */
+        private int depth;
+        /**
+         * The quote character of the string literal being read; 0 if none.
+         */
+        private int quote;
+        /**
+         * Whether the current line continues the arguments of a directive
+         * started on a previous line.
+         */
+        private boolean continued;
+
+        /**
+         * Marks the current line as not being a single directive.
+         */
+        public void reject() {
+            state = OTHER;
+        }
+
+        /**
+         * Pushes the next character of the line.
+         *
+         * @param c the character
+         */
+        public void push(int c) {
+            switch (state) {
+                case START:
+                    state = c == '#' ? HASH : OTHER;
+                    break;
+                case HASH:
+                    if (c == '{' && !braced) {
+                        braced = true;
+                    } else if (c >= 'a' && c <= 'z') {
+                        name[0] = (char) c;
+                        nameLength = 1;
+                        state = NAME;
+                    } else {
+                        state = OTHER;
+                    }
+                    break;
+                case NAME:
+                    if (c >= 'a' && c <= 'z') {
+                        if (nameLength == name.length) {
+                            state = OTHER;
+                        } else {
+                            name[nameLength++] = (char) c;
+                        }
+                    } else if (braced) {
+                        state = c == '}' ? endName() : OTHER;
+                    } else if (endName() == AFTER_NAME) {
+                        afterName(c);
+                    }
+                    break;
+                case AFTER_NAME:
+                    afterName(c);
+                    break;
+                case ARGS:
+                    if (quote != 0) {
+                        if (c == quote) {
+                            quote = 0;
+                        }
+                    } else if (c == '"' || c == '\'') {
+                        quote = c;
+                    } else if (c == '(') {
+                        depth++;
+                    } else if (c == ')' && --depth == 0) {
+                        state = DONE;
+                    }
+                    break;
+                default:
+                    state = OTHER;
+                    break;
+            }
+        }
+
+        /**
+         * Completes the directive name, determining whether it is a control
+         * directive and the arguments it takes.
+         *
+         * @return the new state
+         */
+        private int endName() {
+            if (nameIs("end") || nameIs("else")) {
+                arguments = NO_ARGS;
+            } else if (nameIs("break") || nameIs("stop")) {
+                arguments = OPTIONAL_ARGS;
+            } else if (nameIs("if") || nameIs("elseif") || nameIs("foreach") || nameIs("set")
+                    || nameIs("macro") || nameIs("define")) {
+                arguments = REQUIRED_ARGS;
+            } else {
+                state = OTHER;
+                return state;
+            }
+            state = AFTER_NAME;
+            return state;
+        }
+
+        /**
+         * Compares the directive name read so far with the given name without
+         * allocating a string for it.
+         *
+         * @param directive the directive name
+         * @return <code>true</code> if the names are equal; otherwise
+         * <code>false</code>
+         */
+        private boolean nameIs(String directive) {
+            if (directive.length() != nameLength) {
+                return false;
+            }
+            for (int i = 0; i < nameLength; i++) {
+                if (name[i] != directive.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Handles a character following the directive name.
+         *
+         * @param c the character
+         */
+        private void afterName(int c) {
+            if (c == '(' && arguments != NO_ARGS) {
+                depth = 1;
+                state = ARGS;
+            } else if ((c != ' ' && c != '\t') || arguments != REQUIRED_ARGS) {
+                state = OTHER;
+            }
+        }
+
+        /**
+         * Completes the current line.
+         *
+         * @return <code>true</code> if the line contains only a single
+         * control directive; otherwise <code>false</code>
+         */
+        public boolean endLine() {
+            if (state == NAME && !braced) {
+                endName();
+            }
+            final boolean single = !continued
+                    && (state == DONE || state == AFTER_NAME && arguments != REQUIRED_ARGS);
+            if (state == ARGS) {
+                continued = true;
+            } else {
+                state = START;
+                braced = false;
+                continued = false;
+            }
+            return single;
+        }
+    }
+
     /**
      * Small internal cache that is used to track the previous three characters
      * read.
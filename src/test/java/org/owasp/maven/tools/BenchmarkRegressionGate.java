@@ -0,0 +1,398 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Compares a JMH JSON result file against a baseline and a set of allocation
+ * budgets, failing (non-zero exit status) when a benchmark has significantly
+ * regressed. A throughput regression is only reported when the confidence
+ * intervals of the baseline and current run do not overlap and the change in
+ * score exceeds the configured relative threshold. Allocation is checked
+ * against explicit bytes/op budgets using the <code>gc.alloc.rate.norm</code>
+ * metric produced by <code>-prof gc</code>. A benchmark in the baseline or
+ * the budgets that is missing from the results (e.g. after a rename) also
+ * fails the gate, as does a benchmark with an allocation budget but no
+ * allocation metric.
+ * <p>
+ * Usage: <code>BenchmarkRegressionGate &lt;baseline.json&gt;
+ * &lt;results.json&gt; [budgets.properties]</code></p>
+ *
+ * @author Jeremy Long
+ */
+public final class BenchmarkRegressionGate {
+
+    /**
+     * The JMH secondary metric holding the normalized allocation rate.
+     */
+    static final String ALLOC_METRIC = "gc.alloc.rate.norm";
+    /**
+     * The default relative change in score that is considered a regression.
+     */
+    static final double DEFAULT_THRESHOLD = 0.10;
+
+    /**
+     * The benchmarks from the baseline keyed by short name.
+     */
+    private final Map<String, Result> baseline;
+    /**
+     * The benchmarks from the current run keyed by short name.
+     */
+    private final Map<String, Result> current;
+    /**
+     * The thresholds and allocation budgets.
+     */
+    private final Properties budgets;
+
+    /**
+     * Constructs a new regression gate.
+     *
+     * @param baseline the baseline results keyed by short benchmark name
+     * @param current the current results keyed by short benchmark name
+     * @param budgets the thresholds and allocation budgets
+     */
+    BenchmarkRegressionGate(Map<String, Result> baseline, Map<String, Result> current, Properties budgets) {
+        this.baseline = baseline;
+        this.current = current;
+        this.budgets = budgets;
+    }
+
+    /**
+     * Runs the regression gate.
+     *
+     * @param args the baseline file, the result file, and optionally the
+     * budget file
+     * @throws IOException thrown if one of the files cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchmarkRegressionGate <baseline.json> <results.json> [budgets.properties]");
+            System.exit(2);
+        }
+        final Path baselineFile = Paths.get(args[0]);
+        final Path resultFile = Paths.get(args[1]);
+        if (!Files.isRegularFile(resultFile)) {
+            System.err.println("No benchmark results found at " + resultFile);
+            System.exit(2);
+        }
+        final Map<String, Result> baseline;
+        if (Files.isRegularFile(baselineFile)) {
+            baseline = load(baselineFile);
+        } else {
+            System.out.println("No baseline found. To create one: cp " + resultFile + " " + baselineFile);
+            baseline = new TreeMap<>();
+        }
+        final Properties budgets = new Properties();
+        if (args.length > 2 && Files.isRegularFile(Paths.get(args[2]))) {
+            try (Reader in = Files.newBufferedReader(Paths.get(args[2]), StandardCharsets.UTF_8)) {
+                budgets.load(in);
+            }
+        }
+        final BenchmarkRegressionGate gate = new BenchmarkRegressionGate(baseline, load(resultFile), budgets);
+        final List<String> failures = gate.evaluate(System.out);
+        if (!failures.isEmpty()) {
+            System.out.println("Benchmark regression gate FAILED:");
+            for (String failure : failures) {
+                System.out.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("Benchmark regression gate passed.");
+    }
+
+    /**
+     * Loads a JMH JSON result file.
+     *
+     * @param file the JMH JSON result file
+     * @return the results keyed by short benchmark name
+     * @throws IOException thrown if the file cannot be read
+     */
+    static Map<String, Result> load(Path file) throws IOException {
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return parse(JsonParser.parseReader(in).getAsJsonArray());
+        }
+    }
+
+    /**
+     * Converts the JMH JSON result array into results.
+     *
+     * @param array the JMH JSON result array
+     * @return the results keyed by short benchmark name
+     */
+    static Map<String, Result> parse(JsonArray array) {
+        final Map<String, Result> results = new TreeMap<>();
+        for (JsonElement element : array) {
+            final JsonObject benchmark = element.getAsJsonObject();
+            final String name = benchmark.get("benchmark").getAsString();
+            final Metric primary = Metric.from(benchmark.getAsJsonObject("primaryMetric"));
+            Metric alloc = null;
+            final JsonObject secondary = benchmark.getAsJsonObject("secondaryMetrics");
+            if (secondary != null && secondary.has(ALLOC_METRIC)) {
+                alloc = Metric.from(secondary.getAsJsonObject(ALLOC_METRIC));
+            }
+            results.put(name.substring(name.lastIndexOf('.') + 1),
+                    new Result(benchmark.get("mode").getAsString(), primary, alloc));
+        }
+        return results;
+    }
+
+    /**
+     * Compares the current results with the baseline and budgets, printing a
+     * table of the comparison.
+     *
+     * @param out where the comparison table is written
+     * @return the list of failures; empty if the gate passed
+     * @throws IOException thrown if the table cannot be written
+     */
+    List<String> evaluate(Appendable out) throws IOException {
+        final List<String> failures = new ArrayList<>();
+        out.append(String.format(Locale.ROOT, "%n=== Benchmark Comparison ===%n%n"));
+        out.append(String.format(Locale.ROOT, "%-28s %30s %30s %9s %12s %12s  %s%n",
+                "Benchmark", "Baseline", "Current", "Delta", "Alloc B/op", "Budget", "Status"));
+        for (Map.Entry<String, Result> entry : current.entrySet()) {
+            final String name = entry.getKey();
+            final Result now = entry.getValue();
+            final Result before = baseline.get(name);
+            final StringBuilder status = new StringBuilder();
+            String baseText = "-";
+            String delta = "-";
+            if (before != null) {
+                baseText = before.primary.toString();
+                final double change = (now.primary.score - before.primary.score) / before.primary.score;
+                delta = String.format(Locale.ROOT, "%+8.2f%%", change * 100);
+                final double threshold = threshold(name);
+                if (isSlower(before, now) && Math.abs(change) > threshold) {
+                    status.append("SLOWER ");
+                    failures.add(String.format(Locale.ROOT, "%s: %s -> %s (%s, threshold %.1f%%)",
+                            name, before.primary, now.primary, delta.trim(), threshold * 100));
+                } else if (isSlower(now, before) && Math.abs(change) > threshold) {
+                    status.append("faster ");
+                }
+            }
+            String allocText = "-";
+            String budgetText = "-";
+            final String budget = budgets.getProperty(name + ".alloc");
+            if (now.alloc != null) {
+                allocText = String.format(Locale.ROOT, "%.1f", now.alloc.score);
+            }
+            if (budget != null) {
+                final double limit = Double.parseDouble(budget.trim());
+                budgetText = String.format(Locale.ROOT, "%.1f", limit);
+                if (now.alloc == null) {
+                    status.append("no-gc-data ");
+                    failures.add(String.format(Locale.ROOT, "%s: has an allocation budget but no %s metric"
+                            + " (was the benchmark run with -prof gc?)", name, ALLOC_METRIC));
+                } else if (now.alloc.score > limit) {
+                    status.append("OVER-BUDGET ");
+                    failures.add(String.format(Locale.ROOT, "%s: allocates %.1f B/op, budget is %.1f B/op",
+                            name, now.alloc.score, limit));
+                }
+            }
+            out.append(String.format(Locale.ROOT, "%-28s %30s %30s %9s %12s %12s  %s%n",
+                    name, baseText, now.primary, delta, allocText, budgetText,
+                    status.length() == 0 ? "ok" : status.toString().trim()));
+        }
+        for (String name : expected()) {
+            if (!current.containsKey(name)) {
+                final Result before = baseline.get(name);
+                final String budget = budgets.getProperty(name + ".alloc");
+                out.append(String.format(Locale.ROOT, "%-28s %30s %30s %9s %12s %12s  %s%n",
+                        name, before == null ? "-" : before.primary, "-", "-", "-",
+                        budget == null ? "-" : budget.trim(), "MISSING"));
+                failures.add(name + ": in the baseline or budgets but missing from the results");
+            }
+        }
+        out.append(System.lineSeparator());
+        return failures;
+    }
+
+    /**
+     * Returns the benchmarks that are expected in the results; those in the
+     * baseline and those with a threshold or allocation budget.
+     *
+     * @return the short names of the expected benchmarks
+     */
+    private Set<String> expected() {
+        final Set<String> names = new TreeSet<>(baseline.keySet());
+        for (String key : budgets.stringPropertyNames()) {
+            final int dot = key.lastIndexOf('.');
+            if (dot > 0 && (key.endsWith(".alloc") || key.endsWith(".threshold"))) {
+                names.add(key.substring(0, dot));
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the relative regression threshold for the given benchmark.
+     *
+     * @param name the short benchmark name
+     * @return the threshold as a fraction (0.10 == 10%)
+     */
+    private double threshold(String name) {
+        final String value = budgets.getProperty(name + ".threshold", budgets.getProperty("threshold"));
+        return value == null ? DEFAULT_THRESHOLD : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Determines if <code>second</code> is statistically slower than
+     * <code>first</code>; that is, the confidence intervals do not overlap and
+     * the second result lies on the worse side for the benchmark mode.
+     *
+     * @param first the reference result
+     * @param second the result being compared
+     * @return <code>true</code> if the second result is significantly slower;
+     * otherwise <code>false</code>
+     */
+    static boolean isSlower(Result first, Result second) {
+        if (second.higherIsBetter()) {
+            return second.primary.high() < first.primary.low();
+        }
+        return second.primary.low() > first.primary.high();
+    }
+
+    /**
+     * A single benchmark result.
+     */
+    static final class Result {
+
+        /**
+         * The JMH benchmark mode (thrpt, avgt, sample, ss).
+         */
+        private final String mode;
+        /**
+         * The primary metric.
+         */
+        private final Metric primary;
+        /**
+         * The normalized allocation metric; <code>null</code> if the
+         * benchmark was not run with <code>-prof gc</code>.
+         */
+        private final Metric alloc;
+
+        /**
+         * Constructs a new result.
+         *
+         * @param mode the JMH benchmark mode
+         * @param primary the primary metric
+         * @param alloc the normalized allocation metric, may be
+         * <code>null</code>
+         */
+        Result(String mode, Metric primary, Metric alloc) {
+            this.mode = mode;
+            this.primary = primary;
+            this.alloc = alloc;
+        }
+
+        /**
+         * Returns whether a higher score is better for this benchmark mode.
+         *
+         * @return <code>true</code> for throughput benchmarks; otherwise
+         * <code>false</code>
+         */
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+
+    /**
+     * A JMH metric with its score and confidence interval.
+     */
+    static final class Metric {
+
+        /**
+         * The score.
+         */
+        private final double score;
+        /**
+         * The score error (half width of the confidence interval).
+         */
+        private final double error;
+        /**
+         * The unit of the score.
+         */
+        private final String unit;
+
+        /**
+         * Constructs a new metric.
+         *
+         * @param score the score
+         * @param error the score error; NaN is treated as zero
+         * @param unit the unit of the score
+         */
+        Metric(double score, double error, String unit) {
+            this.score = score;
+            this.error = Double.isNaN(error) ? 0 : error;
+            this.unit = unit;
+        }
+
+        /**
+         * Reads a metric from its JMH JSON representation.
+         *
+         * @param json the JMH JSON metric
+         * @return the metric
+         */
+        static Metric from(JsonObject json) {
+            final JsonElement error = json.get("scoreError");
+            double err = Double.NaN;
+            if (error != null && error.isJsonPrimitive() && error.getAsJsonPrimitive().isNumber()) {
+                err = error.getAsDouble();
+            }
+            return new Metric(json.get("score").getAsDouble(), err, json.get("scoreUnit").getAsString());
+        }
+
+        /**
+         * Returns the lower bound of the confidence interval.
+         *
+         * @return the lower bound
+         */
+        double low() {
+            return score - error;
+        }
+
+        /**
+         * Returns the upper bound of the confidence interval.
+         *
+         * @return the upper bound
+         */
+        double high() {
+            return score + error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.2f +/- %.2f %s", score, error, unit);
+        }
+    }
+}
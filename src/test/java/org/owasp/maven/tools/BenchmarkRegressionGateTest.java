@@ -0,0 +1,170 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import com.google.gson.JsonParser;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jeremy Long
+ */
+public class BenchmarkRegressionGateTest {
+
+    /**
+     * Test of parse method, of class BenchmarkRegressionGate.
+     */
+    @Test
+    public void testParse() {
+        Map<String, BenchmarkRegressionGate.Result> results = parse(
+                benchmark("simpleRead", "avgt", 10, 1, 128.0),
+                benchmark("largeInputRead", "thrpt", 20, Double.NaN, null));
+        assertEquals(2, results.size());
+        assertFalse(results.get("simpleRead").higherIsBetter());
+        assertTrue(results.get("largeInputRead").higherIsBetter());
+    }
+
+    /**
+     * Test of isSlower method, of class BenchmarkRegressionGate.
+     */
+    @Test
+    public void testIsSlower() {
+        Map<String, BenchmarkRegressionGate.Result> before = parse(
+                benchmark("avg", "avgt", 100, 1, null), benchmark("thr", "thrpt", 100, 1, null));
+        Map<String, BenchmarkRegressionGate.Result> after = parse(
+                benchmark("avg", "avgt", 120, 1, null), benchmark("thr", "thrpt", 80, 1, null));
+        assertTrue(BenchmarkRegressionGate.isSlower(before.get("avg"), after.get("avg")));
+        assertFalse(BenchmarkRegressionGate.isSlower(after.get("avg"), before.get("avg")));
+        assertTrue(BenchmarkRegressionGate.isSlower(before.get("thr"), after.get("thr")));
+        assertFalse(BenchmarkRegressionGate.isSlower(after.get("thr"), before.get("thr")));
+    }
+
+    /**
+     * Test of evaluate method, of class BenchmarkRegressionGate.
+     */
+    @Test
+    public void testEvaluate() throws Exception {
+        Map<String, BenchmarkRegressionGate.Result> baseline = parse(
+                benchmark("overlapping", "avgt", 100, 30, null),
+                benchmark("slowerAvgt", "avgt", 100, 1, null),
+                benchmark("slowerThrpt", "thrpt", 100, 1, null),
+                benchmark("fasterThrpt", "thrpt", 100, 1, null),
+                benchmark("overridden", "avgt", 100, 1, null),
+                benchmark("renamed", "avgt", 100, 1, null));
+        Map<String, BenchmarkRegressionGate.Result> current = parse(
+                benchmark("overlapping", "avgt", 140, 30, null),
+                benchmark("slowerAvgt", "avgt", 120, 1, null),
+                benchmark("slowerThrpt", "thrpt", 80, 1, null),
+                benchmark("fasterThrpt", "thrpt", 150, 1, null),
+                benchmark("overridden", "avgt", 120, 1, null),
+                benchmark("underBudget", "avgt", 10, 1, 100.0),
+                benchmark("overBudget", "avgt", 10, 1, 300.0),
+                benchmark("noGcData", "avgt", 10, 1, null));
+        Properties budgets = new Properties();
+        budgets.setProperty("threshold", "0.10");
+        budgets.setProperty("overridden.threshold", "0.50");
+        budgets.setProperty("underBudget.alloc", "200");
+        budgets.setProperty("overBudget.alloc", "200");
+        budgets.setProperty("noGcData.alloc", "200");
+        budgets.setProperty("budgetOnly.alloc", "200");
+        StringBuilder table = new StringBuilder();
+
+        List<String> failures = new BenchmarkRegressionGate(baseline, current, budgets).evaluate(table);
+
+        assertEquals(failures.toString(), 6, failures.size());
+        assertTrue(failed(failures, "slowerAvgt"));
+        assertTrue(failed(failures, "slowerThrpt"));
+        assertTrue(failed(failures, "overBudget"));
+        assertTrue(failed(failures, "noGcData"));
+        assertTrue(failed(failures, "renamed"));
+        assertTrue(failed(failures, "budgetOnly"));
+        assertEquals("ok", status(table, "overlapping"));
+        assertEquals("faster", status(table, "fasterThrpt"));
+        assertEquals("ok", status(table, "overridden"));
+        assertEquals("ok", status(table, "underBudget"));
+        assertEquals("OVER-BUDGET", status(table, "overBudget"));
+        assertEquals("no-gc-data", status(table, "noGcData"));
+        assertEquals("MISSING", status(table, "renamed"));
+    }
+
+    /**
+     * Builds the JMH JSON for a single benchmark.
+     *
+     * @param name the short benchmark name
+     * @param mode the benchmark mode
+     * @param score the score
+     * @param error the score error
+     * @param alloc the normalized allocation; <code>null</code> if the gc
+     * profiler was not used
+     * @return the JSON object
+     */
+    private static String benchmark(String name, String mode, double score, double error, Double alloc) {
+        StringBuilder json = new StringBuilder("{\"benchmark\":\"org.owasp.maven.tools.Bench.").append(name)
+                .append("\",\"mode\":\"").append(mode)
+                .append("\",\"primaryMetric\":{\"score\":").append(score)
+                .append(",\"scoreError\":").append(Double.isNaN(error) ? "\"NaN\"" : String.valueOf(error))
+                .append(",\"scoreUnit\":\"us/op\"},\"secondaryMetrics\":{");
+        if (alloc != null) {
+            json.append('"').append(BenchmarkRegressionGate.ALLOC_METRIC).append("\":{\"score\":").append(alloc)
+                    .append(",\"scoreError\":0.0,\"scoreUnit\":\"B/op\"}");
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * Parses the JMH JSON for the benchmarks.
+     *
+     * @param benchmarks the JSON objects
+     * @return the results
+     */
+    private static Map<String, BenchmarkRegressionGate.Result> parse(String... benchmarks) {
+        return BenchmarkRegressionGate.parse(
+                JsonParser.parseString("[" + String.join(",", benchmarks) + "]").getAsJsonArray());
+    }
+
+    /**
+     * Determines if the benchmark is among the failures.
+     *
+     * @param failures the failures
+     * @param name the short benchmark name
+     * @return <code>true</code> if the benchmark failed
+     */
+    private static boolean failed(List<String> failures, String name) {
+        return failures.stream().anyMatch(f -> f.startsWith(name + ":"));
+    }
+
+    /**
+     * Returns the status column of the benchmark's row in the table.
+     *
+     * @param table the comparison table
+     * @param name the short benchmark name
+     * @return the status
+     */
+    private static String status(CharSequence table, String name) {
+        for (String line : table.toString().split("\\R")) {
+            if (line.startsWith(name + " ")) {
+                return line.substring(line.lastIndexOf("  ") + 2);
+            }
+        }
+        fail("No row for " + name);
+        return null;
+    }
+}
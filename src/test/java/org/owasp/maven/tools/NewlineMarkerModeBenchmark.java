@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.velocity.Template;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.node.SimpleNode;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports the size of the filtered template and the Velocity 2.x parse time
+ * for each {@link NewlineMarkerMode}. Not part of the benchmark profile's
+ * regression gate; run with
+ * <code>org.openjdk.jmh.Main NewlineMarkerModeBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NewlineMarkerModeBenchmark {
+
+    @Param({"ALWAYS", "VELOCITY_1_7", "VELOCITY_2"})
+    public NewlineMarkerMode mode;
+
+    private String filtered;
+    private RuntimeInstance runtime;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<project>\n");
+        for (int i = 0; i < 100; i++) {
+            sb.append("   #set($module = \"module").append(i).append("\")\n")
+                    .append("   <name>$project.name</name>\n")
+                    .append("   #if($dependencies)\n")
+                    .append("      <dependencies>\n")
+                    .append("      #foreach($dep in $dependencies)\n")
+                    .append("         <dependency>\n")
+                    .append("            <groupId>$dep.groupId</groupId>\n")
+                    .append("            <artifactId>$dep.artifactId</artifactId>\n")
+                    .append("         </dependency>\n")
+                    .append("      #end\n")
+                    .append("      </dependencies>\n")
+                    .append("   #else\n")
+                    .append("      <none/>\n")
+                    .append("   #end\n");
+        }
+        sb.append("</project>\n");
+        StringWriter out = new StringWriter();
+        try (Reader reader = new VelocityWhitespaceFilteringReader(new StringReader(sb.toString()), mode)) {
+            IOUtils.copy(reader, out);
+        }
+        filtered = out.toString();
+        System.out.println();
+        System.out.println("Template size: " + sb.length() + " chars; filtered (" + mode + "): "
+                + filtered.length() + " chars");
+        runtime = new RuntimeInstance();
+        runtime.init();
+    }
+
+    @Benchmark
+    public SimpleNode parse() throws Exception {
+        Template template = new Template();
+        template.setName("benchmark.vm");
+        return runtime.parse(new StringReader(filtered), template);
+    }
+}
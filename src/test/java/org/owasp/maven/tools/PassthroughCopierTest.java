@@ -0,0 +1,137 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jeremy Long
+ */
+public class PassthroughCopierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test of copy method, of class PassthroughCopier.
+     */
+    @Test
+    public void testCopy() throws Exception {
+        byte[] content = new byte[200 * 1024];
+        new Random(42).nextBytes(content);
+        File from = folder.newFile("image.png");
+        Files.write(from.toPath(), content);
+        File to = new File(folder.getRoot(), "copy.png");
+        PassthroughCopier instance = new PassthroughCopier();
+
+        assertTrue(instance.copy(from, to, false));
+        assertArrayEquals(content, Files.readAllBytes(to.toPath()));
+
+        //identical content is not rewritten
+        assertTrue(to.setLastModified(1000L));
+        assertFalse(instance.copy(from, to, true));
+        assertEquals(from.lastModified(), to.lastModified());
+
+        //same size but different content is rewritten
+        content[content.length - 1]++;
+        Files.write(from.toPath(), content);
+        assertTrue(instance.copy(from, to, true));
+        assertArrayEquals(content, Files.readAllBytes(to.toPath()));
+
+        //an up to date target is not rewritten without overwrite
+        Files.write(from.toPath(), new byte[]{1, 2, 3});
+        assertTrue(from.setLastModified(1000L));
+        assertFalse(instance.copy(from, to, false));
+        assertEquals(content.length, to.length());
+    }
+
+    /**
+     * Test of copy method, of class PassthroughCopier, with a source that is
+     * newer than an identical target.
+     */
+    @Test
+    public void testCopyTouchesIdenticalTarget() throws Exception {
+        byte[] content = new byte[]{1, 2, 3, 4};
+        File from = folder.newFile("style.css");
+        File to = folder.newFile("style-copy.css");
+        Files.write(from.toPath(), content);
+        Files.write(to.toPath(), content);
+        assertTrue(to.setLastModified(1000L));
+        assertTrue(from.setLastModified(5000L));
+        final int[] comparisons = new int[1];
+        PassthroughCopier instance = new PassthroughCopier() {
+            @Override
+            boolean hasSameContent(File a, File b) throws IOException {
+                comparisons[0]++;
+                return super.hasSameContent(a, b);
+            }
+        };
+
+        assertFalse(instance.copy(from, to, false));
+        assertEquals(1, comparisons[0]);
+        assertEquals(5000L, to.lastModified());
+
+        assertFalse(instance.copy(from, to, false));
+        assertEquals(1, comparisons[0]);
+        assertArrayEquals(content, Files.readAllBytes(to.toPath()));
+    }
+
+    /**
+     * Test of copy method, of class PassthroughCopier, when the target is a
+     * symbolic link.
+     */
+    @Test
+    public void testCopySymbolicLinkTarget() throws Exception {
+        byte[] content = new byte[]{1, 2, 3, 4};
+        byte[] original = new byte[]{9, 9};
+        File from = folder.newFile("image.png");
+        Files.write(from.toPath(), content);
+        File victim = folder.newFile("victim.png");
+        Files.write(victim.toPath(), original);
+        File to = new File(folder.getRoot(), "to.png");
+        try {
+            Files.createSymbolicLink(to.toPath(), victim.toPath());
+        } catch (UnsupportedOperationException | IOException ex) {
+            Assume.assumeNoException(ex);
+        }
+        PassthroughCopier instance = new PassthroughCopier();
+
+        assertTrue(instance.copy(from, to, true));
+        assertFalse(Files.isSymbolicLink(to.toPath()));
+        assertArrayEquals(content, Files.readAllBytes(to.toPath()));
+        assertArrayEquals(original, Files.readAllBytes(victim.toPath()));
+
+        //the link is replaced even when its target looks up to date
+        Files.delete(to.toPath());
+        Files.write(victim.toPath(), content);
+        assertTrue(victim.setLastModified(from.lastModified() + 10000L));
+        Files.createSymbolicLink(to.toPath(), victim.toPath());
+        assertTrue(instance.copy(from, to, false));
+        assertFalse(Files.isSymbolicLink(to.toPath()));
+        assertArrayEquals(content, Files.readAllBytes(victim.toPath()));
+        assertEquals(from.lastModified() + 10000L, victim.lastModified());
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import org.apache.maven.shared.filtering.FilterWrapper;
+import org.apache.maven.shared.filtering.FilteringUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the wall time of the sequential and pipelined copy of a large
+ * Velocity Template. Not part of the benchmark profile's regression gate; run
+ * with <code>org.openjdk.jmh.Main PipelinedFilterCopierBenchmark</code>.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PipelinedFilterCopierBenchmark {
+
+    @Param({"128"})
+    public int sizeMb;
+
+    private File directory;
+    private File from;
+    private File to;
+    private List<FilterWrapper> wrappers;
+    private final PipelinedFilterCopier copier = new PipelinedFilterCopier();
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("pipelined-benchmark").toFile();
+        from = new File(directory, "large.vm");
+        to = new File(directory, "large-out.vm");
+        wrappers = Collections.singletonList(new VelocityWhitespaceFilterWrapper());
+        final long size = sizeMb * 1024L * 1024L;
+        try (Writer out = Files.newBufferedWriter(from.toPath(), StandardCharsets.UTF_8)) {
+            long written = 0;
+            int i = 0;
+            while (written < size) {
+                final String block = "   <name>$project.name</name>\n"
+                        + "      #if($dep)\n"
+                        + "         <line>" + i++ + " with content</line>\n"
+                        + "      #end\n";
+                out.write(block);
+                written += block.length();
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void deleteTarget() {
+        to.delete();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        to.delete();
+        from.delete();
+        directory.delete();
+    }
+
+    @Benchmark
+    public void sequential() throws IOException {
+        FilteringUtils.copyFile(from, to, "UTF-8", wrappers.toArray(new FilterWrapper[0]), true);
+    }
+
+    @Benchmark
+    public void pipelined() throws IOException {
+        copier.copy(from, to, "UTF-8", wrappers, true);
+    }
+}
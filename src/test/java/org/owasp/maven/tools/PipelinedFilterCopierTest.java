@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import org.apache.maven.shared.filtering.FilterWrapper;
+import org.apache.maven.shared.filtering.FilteringUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jeremy Long
+ */
+public class PipelinedFilterCopierTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Builds a template that spans many pipeline buffers.
+     *
+     * @return the template
+     */
+    private static String template() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            sb.append("   <name>$project.name</name> é中😀\n");
+            sb.append("   #if($dep)\n#[[raw ").append(i).append("]]#\n#* comment\n  *#  $dep.id\r\n#end\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Test of copy method, of class PipelinedFilterCopier.
+     */
+    @Test
+    public void testCopy() throws Exception {
+        File from = folder.newFile("template.vm");
+        Files.write(from.toPath(), template().getBytes(StandardCharsets.UTF_8));
+        List<FilterWrapper> wrappers = Collections.singletonList(new VelocityWhitespaceFilterWrapper());
+
+        File expected = new File(folder.getRoot(), "expected.vm");
+        FilteringUtils.copyFile(from, expected, "UTF-8", wrappers.toArray(new FilterWrapper[0]), true);
+
+        File result = new File(folder.getRoot(), "result.vm");
+        PipelinedFilterCopier instance = new PipelinedFilterCopier(7, 2);
+        instance.copy(from, result, "UTF-8", wrappers, false);
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(result.toPath()));
+    }
+
+    /**
+     * Test of copy method, of class PipelinedFilterCopier, when the target
+     * already exists.
+     */
+    @Test
+    public void testCopyExistingTarget() throws Exception {
+        File from = folder.newFile("template.vm");
+        Files.write(from.toPath(), template().getBytes(StandardCharsets.UTF_8));
+        List<FilterWrapper> wrappers = Collections.singletonList(new VelocityWhitespaceFilterWrapper());
+
+        File expected = new File(folder.getRoot(), "expected.vm");
+        FilteringUtils.copyFile(from, expected, "UTF-8", wrappers.toArray(new FilterWrapper[0]), true);
+
+        File result = folder.newFile("result.vm");
+        Files.write(result.toPath(), (template() + template()).getBytes(StandardCharsets.UTF_8));
+        PipelinedFilterCopier instance = new PipelinedFilterCopier(16, 3);
+        instance.copy(from, result, "UTF-8", wrappers, false);
+        assertArrayEquals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(result.toPath()));
+    }
+
+    /**
+     * Test of copy method, of class PipelinedFilterCopier, when the reader
+     * stage fails with an Error.
+     */
+    @Test(timeout = 30000)
+    public void testCopyReaderError() throws Exception {
+        File from = folder.newFile("template.vm");
+        Files.write(from.toPath(), template().getBytes(StandardCharsets.UTF_8));
+        File result = new File(folder.getRoot(), "result.vm");
+        PipelinedFilterCopier instance = new PipelinedFilterCopier(16, 2);
+        try {
+            instance.copy(from, result, new FailingCharset(true, false),
+                    Collections.singletonList(new VelocityWhitespaceFilterWrapper()), true);
+            fail("Expected a StageError");
+        } catch (StageError ex) {
+            assertEquals("decode", ex.getMessage());
+        }
+    }
+
+    /**
+     * Test of copy method, of class PipelinedFilterCopier, when the writer
+     * stage fails with an Error.
+     */
+    @Test(timeout = 30000)
+    public void testCopyWriterError() throws Exception {
+        File from = folder.newFile("template.vm");
+        Files.write(from.toPath(), template().getBytes(StandardCharsets.UTF_8));
+        File result = new File(folder.getRoot(), "result.vm");
+        PipelinedFilterCopier instance = new PipelinedFilterCopier(16, 2);
+        try {
+            instance.copy(from, result, new FailingCharset(false, true),
+                    Collections.singletonList(new VelocityWhitespaceFilterWrapper()), true);
+            fail("Expected a StageError");
+        } catch (StageError ex) {
+            assertEquals("encode", ex.getMessage());
+        }
+    }
+
+    /**
+     * The error thrown by the {@link FailingCharset}.
+     */
+    private static final class StageError extends Error {
+
+        private static final long serialVersionUID = 1L;
+
+        StageError(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * A UTF-8 charset whose decoder or encoder fails with an Error.
+     */
+    private static final class FailingCharset extends Charset {
+
+        private final boolean failDecode;
+        private final boolean failEncode;
+
+        FailingCharset(boolean failDecode, boolean failEncode) {
+            super("x-failing-utf-8", null);
+            this.failDecode = failDecode;
+            this.failEncode = failEncode;
+        }
+
+        @Override
+        public boolean contains(Charset cs) {
+            return false;
+        }
+
+        @Override
+        public CharsetDecoder newDecoder() {
+            if (!failDecode) {
+                return StandardCharsets.UTF_8.newDecoder();
+            }
+            return new CharsetDecoder(this, 1, 1) {
+                @Override
+                protected CoderResult decodeLoop(ByteBuffer in, CharBuffer out) {
+                    throw new StageError("decode");
+                }
+            };
+        }
+
+        @Override
+        public CharsetEncoder newEncoder() {
+            if (!failEncode) {
+                return StandardCharsets.UTF_8.newEncoder();
+            }
+            return new CharsetEncoder(this, 1, 4) {
+                @Override
+                protected CoderResult encodeLoop(CharBuffer in, ByteBuffer out) {
+                    throw new StageError("encode");
+                }
+            };
+        }
+    }
+}
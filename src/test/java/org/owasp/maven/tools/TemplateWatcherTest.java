@@ -0,0 +1,147 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Jeremy Long
+ */
+public class TemplateWatcherTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test of warmUp and run methods, of class TemplateWatcher.
+     */
+    @Test(timeout = 30000)
+    public void testWatch() throws Exception {
+        File source = folder.newFolder("src");
+        File output = folder.newFolder("classes");
+        Files.write(source.toPath().resolve("existing.vm"), "   a\n".getBytes(StandardCharsets.UTF_8));
+        //output that is up to date (e.g. interpolated by Maven) is not rewritten on startup
+        Files.write(source.toPath().resolve("current.vm"), "  ${x}\n".getBytes(StandardCharsets.UTF_8));
+        Path current = output.toPath().resolve("current.vm");
+        Files.write(current, "1##\n".getBytes(StandardCharsets.UTF_8));
+        Files.setLastModifiedTime(current, FileTime.fromMillis(
+                Files.getLastModifiedTime(source.toPath().resolve("current.vm")).toMillis() + 10000L));
+        VelocityWhitespaceFilter filter = new VelocityWhitespaceFilter(Mockito.mock(BuildContext.class));
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        try (TemplateWatcher instance = new TemplateWatcher(filter, source, output, "UTF-8", 20,
+                new PrintStream(log, true, "UTF-8"))) {
+            assertEquals(1, instance.warmUp());
+            assertEquals("a##\n", read(output.toPath().resolve("existing.vm")));
+            assertEquals("1##\n", read(current));
+
+            Thread watcher = new Thread(() -> {
+                try {
+                    instance.run();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            watcher.setDaemon(true);
+            watcher.start();
+
+            Path nested = source.toPath().resolve("nested");
+            Files.createDirectories(nested);
+            Files.write(nested.resolve("template.vtl"), "  b\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(source.toPath().resolve("ignored.txt"), "  c\n".getBytes(StandardCharsets.UTF_8));
+            Path target = output.toPath().resolve("nested").resolve("template.vtl");
+            await(target, "b##\n");
+
+            //moving a directory out of the source removes its templates but not other output
+            Path kept = output.toPath().resolve("nested").resolve("kept.properties");
+            Files.write(kept, "a=b\n".getBytes(StandardCharsets.UTF_8));
+            Files.move(nested, folder.getRoot().toPath().resolve("moved"));
+            while (Files.exists(target)) {
+                Thread.sleep(10);
+            }
+            assertTrue(Files.exists(kept));
+
+            Files.write(source.toPath().resolve("existing.vm"), "   d\n".getBytes(StandardCharsets.UTF_8));
+            await(output.toPath().resolve("existing.vm"), "d##\n");
+
+            Files.delete(source.toPath().resolve("existing.vm"));
+            while (Files.exists(output.toPath().resolve("existing.vm"))) {
+                Thread.sleep(10);
+            }
+            assertFalse(Files.exists(output.toPath().resolve("ignored.txt")));
+
+            instance.close();
+            watcher.join(5000);
+            assertFalse(watcher.isAlive());
+        }
+        assertTrue(log.toString("UTF-8").contains("after the change"));
+    }
+
+    /**
+     * Waits for the file to have the expected content.
+     *
+     * @param file the file
+     * @param expected the expected content
+     */
+    private static void await(Path file, String expected) throws Exception {
+        while (!Files.isRegularFile(file) || !expected.equals(read(file))) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Reads the file.
+     *
+     * @param file the file
+     * @return the content of the file
+     */
+    private static String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Test of synchronize method, of class TemplateWatcher.
+     */
+    @Test
+    public void testSynchronize() throws Exception {
+        File source = folder.newFolder("src");
+        File output = folder.newFolder("classes");
+        Files.write(source.toPath().resolve("current.vm"), "  ${x}\n".getBytes(StandardCharsets.UTF_8));
+        Path current = output.toPath().resolve("current.vm");
+        Files.write(current, "1##\n".getBytes(StandardCharsets.UTF_8));
+        VelocityWhitespaceFilter filter = new VelocityWhitespaceFilter(Mockito.mock(BuildContext.class));
+
+        try (TemplateWatcher instance = new TemplateWatcher(filter, source, output, "UTF-8", 20,
+                new PrintStream(new ByteArrayOutputStream(), true, "UTF-8"))) {
+            assertEquals(1, instance.synchronize());
+        }
+        assertEquals("${x}##\n", read(current));
+    }
+}
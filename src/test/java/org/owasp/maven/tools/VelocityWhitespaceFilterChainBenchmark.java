@@ -0,0 +1,102 @@
+/*
+ * Copyright 2018 Jeremy Long.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.owasp.maven.tools;
+
+import org.apache.maven.shared.filtering.MultiDelimiterInterpolatorFilterReaderLineEnding;
+import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
+import org.codehaus.plexus.interpolation.multi.MultiDelimiterStringSearchInterpolator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the whitespace filter reading the Maven interpolation filter a
+ * character at a time with reading it in blocks into its internal buffer, on
+ * a property-heavy template. Both variants run the same interpolation reader
+ * beneath the same whitespace reader; only the whitespace reader's block size
+ * (1 vs {@link VelocityWhitespaceFilteringReader#DEFAULT_BUFFER_SIZE})
+ * differs. Not part of the benchmark profile's regression gate; run with
+ * <code>org.openjdk.jmh.Main VelocityWhitespaceFilterChainBenchmark</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 5, time = 2, timeUnit = TimeUnit.SECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VelocityWhitespaceFilterChainBenchmark {
+
+    private String template;
+    private MultiDelimiterStringSearchInterpolator interpolator;
+    private LinkedHashSet<String> delimiters;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Properties props = new Properties();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            props.setProperty("dep" + i + ".groupId", "org.example.group" + i);
+            props.setProperty("dep" + i + ".version", "1." + i);
+            sb.append("      <dependency>\n")
+                    .append("         <groupId>${dep").append(i).append(".groupId}</groupId>\n")
+                    .append("         <artifactId>$artifact.id</artifactId>\n")
+                    .append("         <version>@dep").append(i).append(".version@</version>\n")
+                    .append("      </dependency>\n");
+        }
+        template = sb.toString();
+        delimiters = new LinkedHashSet<>(Arrays.asList("${*}", "@"));
+        interpolator = new MultiDelimiterStringSearchInterpolator();
+        interpolator.setDelimiterSpecs(delimiters);
+        interpolator.addValueSource(new PropertiesBasedValueSource(props));
+    }
+
+    private Reader interpolate() {
+        MultiDelimiterInterpolatorFilterReaderLineEnding reader
+                = new MultiDelimiterInterpolatorFilterReaderLineEnding(new StringReader(template), interpolator, true);
+        reader.setDelimiterSpecs(delimiters);
+        return reader;
+    }
+
+    private static void drain(Reader reader, Blackhole blackhole) throws IOException {
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = reader.read(buffer, 0, buffer.length)) != -1) {
+            blackhole.consume(n);
+            blackhole.consume(buffer);
+        }
+    }
+
+    @Benchmark
+    public void charAtATime(Blackhole blackhole) throws IOException {
+        try (Reader reader = new VelocityWhitespaceFilteringReader(interpolate(), 1)) {
+            drain(reader, blackhole);
+        }
+    }
+
+    @Benchmark
+    public void blockRead(Blackhole blackhole) throws IOException {
+        try (Reader reader = new VelocityWhitespaceFilteringReader(interpolate())) {
+            drain(reader, blackhole);
+        }
+    }
+}
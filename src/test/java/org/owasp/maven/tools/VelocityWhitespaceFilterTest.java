@@ -16,7 +16,13 @@
 package org.owasp.maven.tools;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import org.apache.maven.shared.filtering.FilterWrapper;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
@@ -28,6 +34,9 @@ import static org.junit.Assert.*;
  */
 public class VelocityWhitespaceFilterTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     /**
      * Test of shouldFilter method, of class VelocityWhitespaceFilter.
      */
@@ -59,4 +68,68 @@ public class VelocityWhitespaceFilterTest {
         result = instance.shouldFilter(from);
         assertEquals(expResult, result);
     }
+
+    /**
+     * Test of isPassthrough method, of class VelocityWhitespaceFilter.
+     */
+    @Test
+    public void testIsPassthrough() throws Exception {
+        VelocityWhitespaceFilter instance = new VelocityWhitespaceFilter(Mockito.mock(BuildContext.class));
+        File from = folder.newFile("image.png");
+        FilterWrapper wrapper = new VelocityWhitespaceFilterWrapper();
+        assertTrue(instance.isPassthrough(from, false, Collections.singletonList(wrapper)));
+        assertTrue(instance.isPassthrough(from, true, Collections.<FilterWrapper>emptyList()));
+        assertFalse(instance.isPassthrough(from, true, Collections.singletonList(wrapper)));
+    }
+
+    /**
+     * Test of copyFile method, of class VelocityWhitespaceFilter, comparing
+     * the pipelined and sequential copies.
+     */
+    @Test
+    public void testCopyFilePipelined() throws Exception {
+        File from = folder.newFile("template.vm");
+        Files.write(from.toPath(), "   test\n#[[unmodified]]\n]]#\n\n  $a.b\n#*\ncomment  \r*#test\n"
+                .getBytes(StandardCharsets.UTF_8));
+        VelocityWhitespaceFilter instance = new VelocityWhitespaceFilter(Mockito.mock(BuildContext.class));
+
+        File sequential = new File(folder.getRoot(), "sequential.vm");
+        instance.copyFile(from, sequential, true, Collections.<FilterWrapper>emptyList(), "UTF-8", true);
+
+        instance.setPipelineThreshold(0);
+        File pipelined = new File(folder.getRoot(), "pipelined.vm");
+        instance.copyFile(from, pipelined, true, Collections.<FilterWrapper>emptyList(), "UTF-8", true);
+
+        assertEquals("test##\n#[[unmodified]]\n]]###\n$a.b ##\n#*\ncomment  \r*#test##\n",
+                new String(Files.readAllBytes(pipelined.toPath()), StandardCharsets.UTF_8));
+        assertArrayEquals(Files.readAllBytes(sequential.toPath()), Files.readAllBytes(pipelined.toPath()));
+    }
+
+    /**
+     * Test of the marker mode system property, of class
+     * VelocityWhitespaceFilter.
+     */
+    @Test
+    public void testMarkerModeProperty() {
+        String previous = System.getProperty(VelocityWhitespaceFilter.MARKER_MODE_PROPERTY);
+        try {
+            System.setProperty(VelocityWhitespaceFilter.MARKER_MODE_PROPERTY, "velocity-3");
+            try {
+                new VelocityWhitespaceFilter(Mockito.mock(BuildContext.class));
+                fail("Expected an IllegalArgumentException");
+            } catch (IllegalArgumentException ex) {
+                assertTrue(ex.getMessage().contains(VelocityWhitespaceFilter.MARKER_MODE_PROPERTY));
+                assertTrue(ex.getMessage().contains("velocity-3"));
+                assertTrue(ex.getMessage().contains("always, velocity-1.7, or velocity-2"));
+            }
+            System.setProperty(VelocityWhitespaceFilter.MARKER_MODE_PROPERTY, "Velocity-1.7");
+            assertNotNull(new VelocityWhitespaceFilter(Mockito.mock(BuildContext.class)));
+        } finally {
+            if (previous == null) {
+                System.clearProperty(VelocityWhitespaceFilter.MARKER_MODE_PROPERTY);
+            } else {
+                System.setProperty(VelocityWhitespaceFilter.MARKER_MODE_PROPERTY, previous);
+            }
+        }
+    }
 }
@@ -15,7 +15,20 @@
  */
 package org.owasp.maven.tools;
 
+import java.io.Reader;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Properties;
+import java.util.Random;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.shared.filtering.MultiDelimiterInterpolatorFilterReaderLineEnding;
+import org.apache.velocity.VelocityContext;
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.codehaus.plexus.interpolation.PropertiesBasedValueSource;
+import org.codehaus.plexus.interpolation.multi.MultiDelimiterStringSearchInterpolator;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -104,4 +117,182 @@ public class VelocityWhitespaceFilteringReaderTest {
             assertEquals(expectedContent, test);
         }
     }
+
+    /**
+     * Test of read method, of class VelocityWhitespaceFilteringReader, reading
+     * an interpolated template with various buffer sizes.
+     */
+    @Test
+    public void testReadBufferSizes() throws Exception {
+        String template = "   <name>${project.name}</name>\n   #if($a)\n#[[ ${raw} ]]#\n  $a.b\n"
+                + "#* ${comment}\n *#  <v>@version@</v>\r\n#end\n";
+        String expected = null;
+        for (int size : new int[]{1, 2, 3, 7, VelocityWhitespaceFilteringReader.DEFAULT_BUFFER_SIZE}) {
+            StringWriter out = new StringWriter();
+            try (Reader instance = new VelocityWhitespaceFilteringReader(interpolate(template), size)) {
+                IOUtils.copy(instance, out);
+            }
+            if (expected == null) {
+                expected = out.toString();
+            }
+            assertEquals("buffer size " + size, expected, out.toString());
+        }
+        assertEquals("<name>demo</name>##\n#if($a)##\n#[[ demo ]]###\n$a.b ##\n"
+                + "#* demo\n *#  <v>1.0</v>##\r#end##\n", expected);
+    }
+
+    /**
+     * Test of skip and ready methods, of class
+     * VelocityWhitespaceFilteringReader.
+     */
+    @Test
+    public void testSkip() throws Exception {
+        try (StringReader in = new StringReader("   ab\ncd");
+                VelocityWhitespaceFilteringReader instance = new VelocityWhitespaceFilteringReader(in)) {
+            assertTrue(instance.ready());
+            assertEquals(3, instance.skip(3));
+            assertEquals('#', instance.read());
+            assertEquals('\n', instance.read());
+            assertFalse(instance.markSupported());
+        }
+    }
+
+    /**
+     * Wraps the template in the Maven interpolation filter, as is done by the
+     * default filter wrappers.
+     *
+     * @param template the template
+     * @return the interpolating reader
+     */
+    private static Reader interpolate(String template) {
+        Properties props = new Properties();
+        props.setProperty("project.name", "demo");
+        props.setProperty("raw", "demo");
+        props.setProperty("comment", "demo");
+        props.setProperty("version", "1.0");
+        MultiDelimiterStringSearchInterpolator interpolator = new MultiDelimiterStringSearchInterpolator();
+        interpolator.setDelimiterSpecs(new LinkedHashSet<>(Arrays.asList("${*}", "@")));
+        interpolator.addValueSource(new PropertiesBasedValueSource(props));
+        MultiDelimiterInterpolatorFilterReaderLineEnding reader
+                = new MultiDelimiterInterpolatorFilterReaderLineEnding(new StringReader(template), interpolator, true);
+        reader.setDelimiterSpecs(new LinkedHashSet<>(Arrays.asList("${*}", "@")));
+        return reader;
+    }
+
+    /**
+     * Test of read method, of class VelocityWhitespaceFilteringReader, with
+     * each newline marker mode.
+     */
+    @Test
+    public void testReadMarkerMode() throws Exception {
+        String template = "   #if($a)\n  <a>$a</a>\n#{else}\n   #set($b = \")\")  \n#end\n$a\n";
+        assertEquals("#if($a)##\n<a>$a</a>##\n#{else}##\n#set($b = \")\")  ##\n#end##\n$a ##\n",
+                filter(template, NewlineMarkerMode.ALWAYS));
+        assertEquals("#if($a)##\n<a>$a</a>##\n#{else}##\n#set($b = \")\")  ##\n#end##\n$a ",
+                filter(template, NewlineMarkerMode.VELOCITY_1_7));
+        assertEquals("#if($a)\n<a>$a</a>##\n#{else}\n#set($b = \")\")  ##\n#end\n$a ",
+                filter(template, NewlineMarkerMode.VELOCITY_2));
+        assertEquals("text", filter("text\n\n  \n", NewlineMarkerMode.VELOCITY_2));
+        assertEquals("#if($a ||##\n$b)##\n#end", filter("#if($a ||\n$b)\n#end\n", NewlineMarkerMode.VELOCITY_2));
+    }
+
+    /**
+     * Test that the newline marker modes do not change the rendered output of
+     * the templates.
+     */
+    @Test
+    public void testMarkerModeRendering() throws Exception {
+        VelocityEngine lines = engine(RuntimeConstants.SpaceGobbling.LINES);
+        VelocityEngine bc = engine(RuntimeConstants.SpaceGobbling.BC);
+        Random random = new Random(42);
+        for (int i = 0; i < 300; i++) {
+            StringBuilder sb = new StringBuilder();
+            block(sb, random, 0);
+            if (random.nextBoolean()) {
+                sb.setLength(sb.length() - 1);
+            }
+            String template = sb.toString();
+            assertEquals(template, render(lines, filter(template, NewlineMarkerMode.ALWAYS)),
+                    render(lines, filter(template, NewlineMarkerMode.VELOCITY_2)));
+            assertEquals(template, render(bc, filter(template, NewlineMarkerMode.ALWAYS)),
+                    render(bc, filter(template, NewlineMarkerMode.VELOCITY_1_7)));
+        }
+    }
+
+    /**
+     * Filters the template using the given mode.
+     *
+     * @param template the template
+     * @param mode the newline marker mode
+     * @return the filtered template
+     */
+    private static String filter(String template, NewlineMarkerMode mode) throws Exception {
+        StringWriter out = new StringWriter();
+        try (Reader instance = new VelocityWhitespaceFilteringReader(new StringReader(template), 3, mode)) {
+            IOUtils.copy(instance, out);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Creates a Velocity engine with the given space gobbling.
+     *
+     * @param gobbling the space gobbling mode
+     * @return the engine
+     */
+    private static VelocityEngine engine(RuntimeConstants.SpaceGobbling gobbling) {
+        VelocityEngine engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.SPACE_GOBBLING, gobbling.name().toLowerCase());
+        engine.init();
+        return engine;
+    }
+
+    /**
+     * Renders the template.
+     *
+     * @param engine the Velocity engine
+     * @param template the template
+     * @return the rendered output
+     */
+    private static String render(VelocityEngine engine, String template) {
+        VelocityContext context = new VelocityContext();
+        context.put("a", "A");
+        context.put("flag", Boolean.TRUE);
+        context.put("list", Arrays.asList(1, 2));
+        StringWriter out = new StringWriter();
+        engine.evaluate(context, out, "test", template);
+        return out.toString();
+    }
+
+    /**
+     * Appends a randomly generated block of template lines.
+     *
+     * @param sb the template being built
+     * @param random the source of randomness
+     * @param depth the nesting depth
+     */
+    private static void block(StringBuilder sb, Random random, int depth) {
+        String[] lines = {"<a>$a</a>", "$a", "text", "#set($x = \"v)\")", "#set( $y = $a )  ", "$x.length()",
+            "## a comment", "#* block *# text", "#[[ #end ]]#", "#{set}($z = 1)", "", "$list.size()"};
+        int count = 1 + random.nextInt(5);
+        for (int i = 0; i < count; i++) {
+            for (int indent = random.nextInt(4); indent > 0; indent--) {
+                sb.append(random.nextBoolean() ? ' ' : '\t');
+            }
+            int kind = depth < 3 ? random.nextInt(10) : 0;
+            if (kind == 1) {
+                sb.append("#if($flag)\n");
+                block(sb, random, depth + 1);
+                sb.append(random.nextBoolean() ? "#else\n" : "#{else}\n");
+                block(sb, random, depth + 1);
+                sb.append(random.nextBoolean() ? "#end\n" : "  #{end}  \n");
+            } else if (kind == 2) {
+                sb.append("#foreach ($i in $list)\n");
+                block(sb, random, depth + 1);
+                sb.append("#end\n");
+            } else {
+                sb.append(lines[random.nextInt(lines.length)]).append(random.nextInt(8) == 0 ? "\r\n" : "\n");
+            }
+        }
+    }
 }